@@ -0,0 +1,183 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Answers independent P(...) and BayesBall queries concurrently against one loaded network.
+// Results come back in input order whatever order the tasks finish in.
+public class BatchQueryExecutor implements AutoCloseable {
+    public static final int DEFAULT_WINDOW = 1024;
+    private static final long FLUSH_INTERVAL_NANOS = 1_000_000_000L;
+
+    private final BayesianNetwork network;
+    private final BayesBall bayesBall;
+    private final boolean planner;
+    private final ExecutorService pool;
+    private InferenceListener listener = InferenceListener.NONE;
+    private FactorCache cache;
+    private SamplingInference sampler;
+
+    public BatchQueryExecutor(BayesianNetwork network, int threads, boolean virtualThreads, boolean planner) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is required.");
+        }
+        this.network = network;
+        this.bayesBall = new BayesBall(network);
+        this.planner = planner;
+        ExecutorService virtual = virtualThreads ? newVirtualThreadExecutor() : null;
+        this.pool = virtual != null ? virtual : Executors.newFixedThreadPool(threads);
+    }
+
+    // Virtual threads need Java 21; on older runtimes this returns null and a platform pool is used.
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    // Shared by every query the executor runs, so it must be thread-safe. Set before runAll.
+    public void setListener(InferenceListener listener) {
+        this.listener = listener;
+        bayesBall.setListener(listener);
+    }
+
+    // Lets the variable-elimination queries reuse each other's intermediate factors. Set before runAll.
+    public void setCache(FactorCache cache) {
+        this.cache = cache;
+    }
+
+    // BayesBall queries with the same source and evidence are answered as one task from a single traversal,
+    // and P(...) queries with the same evidence assignment as one task through VariableElimination.runGroup.
+    public List<String> runAll(List<String> queries) throws InterruptedException, ExecutionException {
+        String[] results = new String[queries.size()];
+        Map<String, List<Integer>> bayesBallGroups = new LinkedHashMap<>();
+        Map<String, List<Integer>> evidenceGroups = new LinkedHashMap<>();
+        VariableElimination grouping = new VariableElimination(network);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < queries.size(); i++) {
+            String query = queries.get(i);
+            String groupKey = isBayesBall(query) ? bayesBall.groupKey(query) : null;
+            String evidenceKey = groupKey == null ? grouping.groupKey(query) : null;
+            if (groupKey != null) {
+                bayesBallGroups.computeIfAbsent(groupKey, k -> new ArrayList<>()).add(i);
+            } else if (evidenceKey != null) {
+                evidenceGroups.computeIfAbsent(evidenceKey, k -> new ArrayList<>()).add(i);
+            } else {
+                int index = i;
+                futures.add(pool.submit(() -> results[index] = answer(query)));
+            }
+        }
+        for (List<Integer> group : bayesBallGroups.values()) {
+            futures.add(pool.submit(() -> {
+                List<String> groupQueries = new ArrayList<>(group.size());
+                for (int index : group) {
+                    groupQueries.add(queries.get(index));
+                }
+                List<String> answers = bayesBall.runGroup(groupQueries);
+                for (int k = 0; k < group.size(); k++) {
+                    results[group.get(k)] = answers.get(k);
+                }
+            }));
+        }
+        for (List<Integer> group : evidenceGroups.values()) {
+            futures.add(pool.submit(() -> {
+                List<String> groupQueries = new ArrayList<>(group.size());
+                for (int index : group) {
+                    groupQueries.add(queries.get(index));
+                }
+                List<String> answers = newEngine().runGroup(groupQueries);
+                for (int k = 0; k < group.size(); k++) {
+                    results[group.get(k)] = answers.get(k);
+                }
+            }));
+        }
+        // Future.get orders every task's writes to results before the reads below.
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        return Arrays.asList(results);
+    }
+
+    // Answers queries as they are read and writes each answer once it and every earlier one are done, so
+    // memory is bounded by the window of queries in flight however long the input is. Queries are answered
+    // one by one instead of grouped. Output is flushed at least once a second while answers arrive,
+    // and whenever the input has nothing more buffered, so a pipe sees answers to the lines it has sent.
+    // Returns the number of queries answered.
+    public long stream(BufferedReader in, BufferedWriter out, int window) throws IOException, InterruptedException, ExecutionException {
+        if (window < 1) {
+            throw new IllegalArgumentException("The window must hold at least one query.");
+        }
+        Deque<Future<String>> inFlight = new ArrayDeque<>(window);
+        long answered = 0;
+        long lastFlush = System.nanoTime();
+        String line;
+        while ((line = in.readLine()) != null) {
+            String query = line;
+            inFlight.add(pool.submit(() -> answer(query)));
+            answered++;
+            while (!inFlight.isEmpty() && (inFlight.size() == window || inFlight.peek().isDone())) {
+                writeNext(inFlight, out);
+            }
+            boolean idle = !in.ready();
+            if (idle) {
+                while (!inFlight.isEmpty()) {
+                    writeNext(inFlight, out);
+                }
+            }
+            if (idle || System.nanoTime() - lastFlush >= FLUSH_INTERVAL_NANOS) {
+                out.flush();
+                lastFlush = System.nanoTime();
+            }
+        }
+        while (!inFlight.isEmpty()) {
+            writeNext(inFlight, out);
+        }
+        out.flush();
+        return answered;
+    }
+
+    private static void writeNext(Deque<Future<String>> inFlight, BufferedWriter out) throws IOException, InterruptedException, ExecutionException {
+        out.write(inFlight.poll().get());
+        out.newLine();
+    }
+
+    private static boolean isBayesBall(String query) {
+        return query.contains("-") && !query.startsWith("P(");
+    }
+
+    // All per-query state (counters, factor lists) lives in the VariableElimination newEngine creates.
+    String answer(String query) {
+        if (isBayesBall(query)) {
+            return bayesBall.run(query);
+        } else if (SamplingInference.isSamplingQuery(query)) {
+            return sampler().run(query);
+        } else if (query.startsWith("P(")) {
+            return newEngine().run(query);
+        } else {
+            return "Invalid query format";
+        }
+    }
+
+    private VariableElimination newEngine() {
+        VariableElimination ve = new VariableElimination(network);
+        ve.setPlanner(planner);
+        ve.setListener(listener);
+        ve.setCache(cache);
+        return ve;
+    }
+
+    // Compiled on the first sampling query, so batches without one never copy the CPTs.
+    private synchronized SamplingInference sampler() {
+        if (sampler == null) {
+            sampler = new SamplingInference(network);
+            sampler.setListener(listener);
+        }
+        return sampler;
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+}
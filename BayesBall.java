@@ -1,159 +1,334 @@
 import java.util.*;
 
 public class BayesBall {
-    private BayesianNetwork network;
+    private final BayesianNetwork network;
+    private final SymbolTable symbols;
+    // Compressed sparse rows: the parents of node v are parentIds[parentStart[v] .. parentStart[v + 1]).
+    private final int[] parentStart;
+    private final int[] parentIds;
+    private final int[] childStart;
+    private final int[] childIds;
+    private final ThreadLocal<Scratch> scratch;
+    private InferenceListener listener = InferenceListener.NONE;
 
     public BayesBall(BayesianNetwork network) {
         this.network = network;
+        Collection<Node> nodes = network.getNodes().values();
+        int n = nodes.size();
+        this.symbols = network.getSymbols();
+
+        this.parentStart = new int[n + 1];
+        this.childStart = new int[n + 1];
+        int parentCount = 0;
+        int childCount = 0;
+        for (Node node : nodes) {
+            parentCount += node.getParents().size();
+            childCount += node.getChildren().size();
+        }
+        this.parentIds = new int[parentCount];
+        this.childIds = new int[childCount];
+        parentCount = 0;
+        childCount = 0;
+        for (Node node : nodes) {
+            int v = node.getId();
+            parentStart[v] = parentCount;
+            for (Node parent : node.getParents()) {
+                parentIds[parentCount++] = parent.getId();
+            }
+            childStart[v] = childCount;
+            for (Node child : node.getChildren()) {
+                childIds[childCount++] = child.getId();
+            }
+        }
+        parentStart[n] = parentCount;
+        childStart[n] = childCount;
+
+        // The traversal state is reused between queries but never shared between threads.
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(n));
+    }
+
+    // Receives a start and an end event for every query answered by run or runGroup.
+    public void setListener(InferenceListener listener) {
+        this.listener = listener;
     }
 
     public String run(String query) {
-        System.out.println("Running query: " + query);
+        boolean metrics = listener != InferenceListener.NONE;
+        long start = 0;
+        if (metrics) {
+            start = System.nanoTime();
+            listener.queryStarted(InferenceListener.BAYES_BALL, query);
+        }
+
+        String answer;
+        ParsedQuery parsed = parse(query);
+        if (parsed.error != null) {
+            answer = parsed.error;
+        } else {
+            answer = dSeparated(parsed.require(), parsed.end, parsed.evidence) ? "yes" : "no";
+        }
+
+        if (metrics) {
+            listener.queryFinished(InferenceListener.BAYES_BALL, query, answer, System.nanoTime() - start);
+        }
+        return answer;
+    }
+
+    // Queries with the same key share a source and an evidence set, so runGroup can answer them together.
+    // Malformed queries and queries from an unknown variable have no key.
+    public String groupKey(String query) {
+        ParsedQuery parsed = parse(query);
+        if (parsed.error != null || parsed.start < 0) {
+            return null;
+        }
+        return parsed.start + "|" + Arrays.toString(parsed.evidence);
+    }
+
+    // Answers queries that all have the same groupKey from a single traversal. The traversal is timed as part
+    // of the first well-formed query.
+    public List<String> runGroup(List<String> queries) {
+        boolean metrics = listener != InferenceListener.NONE;
+        List<String> answers = new ArrayList<>(queries.size());
+        BitSet reachable = null;
+        for (String query : queries) {
+            long start = 0;
+            if (metrics) {
+                start = System.nanoTime();
+                listener.queryStarted(InferenceListener.BAYES_BALL, query);
+            }
+
+            String answer;
+            ParsedQuery parsed = parse(query);
+            if (parsed.error != null) {
+                answer = parsed.error;
+            } else {
+                if (reachable == null) {
+                    reachable = reachable(parsed.require(), parsed.evidence);
+                }
+                answer = parsed.end >= 0 && reachable.get(parsed.end) ? "no" : "yes";
+            }
+
+            if (metrics) {
+                listener.queryFinished(InferenceListener.BAYES_BALL, query, answer, System.nanoTime() - start);
+            }
+            answers.add(answer);
+        }
+        return answers;
+    }
+
+    // Every node d-connected to source given the evidence, found in one traversal (the Reachable procedure of
+    // Koller and Friedman). The source itself is included. A node is d-separated from source exactly when
+    // it is missing from this set.
+    public Set<String> reachable(String source, Collection<String> evidence) {
+        int start = symbols.id(source);
+        if (start < 0) {
+            throw new IllegalArgumentException("Unknown variable: " + source);
+        }
+        BitSet reachable = reachable(start, idsOf(evidence));
+        Set<String> names = new HashSet<>();
+        for (int v = reachable.nextSetBit(0); v >= 0; v = reachable.nextSetBit(v + 1)) {
+            names.add(symbols.name(v));
+        }
+        return names;
+    }
+
+    // As above, by node id; evidence holds known ids only.
+    BitSet reachable(int source, int[] evidence) {
+        Scratch state = prepare(source, evidence);
+        reaches(state, source, -1);
+        long[] words = new long[state.visitedUp.length];
+        for (int word = 0; word < words.length; word++) {
+            words[word] = state.visitedUp[word] | state.visitedDown[word];
+        }
+        BitSet reachable = BitSet.valueOf(words);
+        reachable.set(source);
+        return reachable;
+    }
+
+    // Ids of the known variables among names, sorted and without repeats.
+    private int[] idsOf(Collection<String> names) {
+        return names.stream().mapToInt(symbols::id).filter(id -> id >= 0).sorted().distinct().toArray();
+    }
+
+    private ParsedQuery parse(String query) {
         String[] parts = query.split("\\|");
         if (parts.length != 1 && parts.length != 2) {
-            return "Invalid query format, comes from BayesBall";
+            return new ParsedQuery("Invalid query format, comes from BayesBall");
         }
 
         String[] nodes = parts[0].split("-");
         if (nodes.length != 2) {
-            return "Invalid query format,comes from BayesBall";
+            return new ParsedQuery("Invalid query format,comes from BayesBall");
         }
 
-        String startNode = nodes[0].trim();
-        String endNode = nodes[1].trim();
-        Set<String> evidence = new HashSet<>();
+        List<String> evidence = new ArrayList<>();
         if (parts.length == 2 && !parts[1].trim().isEmpty()) {
             String[] evidences = parts[1].split(",");
             for (String e : evidences) {
                 evidence.add(e.split("=")[0].trim());
             }
         }
-        System.out.println("Parsed evidence: " + evidence);
-
-        boolean independent = dSeparated(startNode, endNode, evidence);
-        System.out.println("Independence check: " + independent);
-
-        return independent ? "yes" : "no";
+        String start = nodes[0].trim();
+        int startId = symbols.id(start);
+        if (startId < 0) {
+            return new ParsedQuery(start, -1, -1, null);
+        }
+        return new ParsedQuery(start, startId, symbols.id(nodes[1].trim()), idsOf(evidence));
     }
 
-    private boolean dSeparated(String start, String end, Set<String> evidence) {
-        Set<Triple> visited = new HashSet<>();
-        Queue<Triple> queue = new LinkedList<>();
-        queue.add(new Triple(start, null, "up"));
-
-        while (!queue.isEmpty()) {
-            Triple triple = queue.poll();
-            String current = triple.node;
-            String prev = triple.prev;
-            String direction = triple.direction;
+    private boolean dSeparated(int start, int end, int[] evidence) {
+        Scratch state = prepare(start, evidence);
+        return !reaches(state, start, end);
+    }
 
-            if (current.equals(end)) {
-                return false;
-            }
+    private Scratch prepare(int start, int[] evidence) {
+        Scratch state = scratch.get();
+        state.clear();
+        if (evidence.length == 0) {
+            return state;
+        }
+        for (int id : evidence) {
+            set(state.evidence, id);
+        }
+        // Ancestor-or-self of some evidence node: a ball arriving from a parent bounces back up through these.
+        // The closure marks them by its own row numbers, straight into the reused words.
+        state.ancestors = network.getAncestorClosure();
+        state.ancestors.mark(evidence, state.evidenceAncestors, state.queue);
+        return state;
+    }
 
-            if (visited.contains(triple)) {
-                continue;
-            }
-            visited.add(triple);
+    // Breadth-first Bayes ball from start. Queue entries encode the node and the direction it was entered
+    // in: 2v + UP when arriving from a child (or at the start), 2v + DOWN when arriving from a parent.
+    private boolean reaches(Scratch state, int start, int end) {
+        if (start == end) {
+            return true;
+        }
+        state.end = end;
+        state.tail = 0;
+        set(state.visitedUp, start);
+        state.queue[state.tail++] = 2 * start + UP;
 
-            Node currentNode = network.getNodeByName(current);
-            if (direction.equals("up")) {
-                if (!evidence.contains(current)) {
-                    for (Node parent : currentNode.getParents()) {
-                        queue.add(new Triple(parent.getName(), current, "up"));
-                    }
-                    for (Node child : currentNode.getChildren()) {
-                        queue.add(new Triple(child.getName(), current, "down"));
+        for (int head = 0; head < state.tail; head++) {
+            int entry = state.queue[head];
+            int v = entry >>> 1;
+            boolean observed = get(state.evidence, v);
+            if ((entry & 1) == UP) {
+                if (!observed) {
+                    for (int i = parentStart[v]; i < parentStart[v + 1]; i++) {
+                        if (visit(state, parentIds[i], UP)) {
+                            return true;
+                        }
                     }
-                }
-            } else if (direction.equals("down")) {
-                if (!evidence.contains(current)) {
-                    for (Node child : currentNode.getChildren()) {
-                        queue.add(new Triple(child.getName(), current, "down"));
+                    for (int i = childStart[v]; i < childStart[v + 1]; i++) {
+                        if (visit(state, childIds[i], DOWN)) {
+                            return true;
+                        }
                     }
                 }
-                if (prev == null || !isParent(currentNode, prev)) {
-                    for (Node parent : currentNode.getParents()) {
-                        queue.add(new Triple(parent.getName(), current, "up"));
+            } else {
+                if (!observed) {
+                    for (int i = childStart[v]; i < childStart[v + 1]; i++) {
+                        if (visit(state, childIds[i], DOWN)) {
+                            return true;
+                        }
                     }
                 }
-
-                // Handle v-structures
-                if (isParent(currentNode, prev)) {
-                    if (evidence.contains(current) || hasDescendantInEvidence(currentNode, evidence)) {
-                        for (Node parent : currentNode.getParents()) {
-                            queue.add(new Triple(parent.getName(), current, "up"));
+                if (state.ancestors != null && state.ancestors.marked(state.evidenceAncestors, v)) {
+                    for (int i = parentStart[v]; i < parentStart[v + 1]; i++) {
+                        if (visit(state, parentIds[i], UP)) {
+                            return true;
                         }
                     }
                 }
             }
         }
-        return true;
+        return false;
     }
 
-    private boolean isParent(Node node, String parentName) {
-        for (Node parent : node.getParents()) {
-            if (parent.getName().equals(parentName)) {
-                return true;
-            }
+    // Enqueues (v, direction) unless it was already seen; true as soon as the end node is reached.
+    private boolean visit(Scratch state, int v, int direction) {
+        if (v == state.end) {
+            return true;
         }
+        long[] visited = direction == UP ? state.visitedUp : state.visitedDown;
+        if (get(visited, v)) {
+            return false;
+        }
+        set(visited, v);
+        state.queue[state.tail++] = 2 * v + direction;
         return false;
     }
 
-    private boolean hasDescendantInEvidence(Node node, Set<String> evidence) {
-        Queue<Node> queue = new LinkedList<>();
-        Set<String> visited = new HashSet<>();
-        queue.add(node);
-
-        while (!queue.isEmpty()) {
-            Node current = queue.poll();
-            if (evidence.contains(current.getName())) {
-                return true;
-            }
-            visited.add(current.getName());
+    private static boolean get(long[] bits, int i) {
+        return (bits[i >>> 6] & (1L << i)) != 0;
+    }
 
-            for (Node child : current.getChildren()) {
-                if (!visited.contains(child.getName())) {
-                    queue.add(child);
-                }
-            }
-        }
-        return false;
+    private static void set(long[] bits, int i) {
+        bits[i >>> 6] |= 1L << i;
     }
 
-    private static class Triple {
-        String node;
-        String prev;
-        String direction;
+    // Node ids; end is -1 for an unknown variable, which is d-separated from everything.
+    private static class ParsedQuery {
+        final String startName;
+        final int start;
+        final int end;
+        final int[] evidence;
+        final String error;
 
-        Triple(String node, String prev, String direction) {
-            this.node = node;
-            this.prev = prev;
-            this.direction = direction;
+        ParsedQuery(String startName, int start, int end, int[] evidence) {
+            this.startName = startName;
+            this.start = start;
+            this.end = end;
+            this.evidence = evidence;
+            this.error = null;
         }
 
-        @Override
-        public boolean equals(Object obj) {
-            if (this == obj) {
-                return true;
-            }
-            if (obj == null || getClass() != obj.getClass()) {
-                return false;
+        ParsedQuery(String error) {
+            this.startName = null;
+            this.start = -1;
+            this.end = -1;
+            this.evidence = null;
+            this.error = error;
+        }
+
+        int require() {
+            if (start < 0) {
+                throw new IllegalArgumentException("Unknown variable: " + startName);
             }
-            Triple triple = (Triple) obj;
-            return Objects.equals(node, triple.node) &&
-                    Objects.equals(prev, triple.prev) &&
-                    Objects.equals(direction, triple.direction);
+            return start;
         }
+    }
+
+    private static final int UP = 0;
+    private static final int DOWN = 1;
+
+    private static class Scratch {
+        final long[] visitedUp;
+        final long[] visitedDown;
+        final long[] evidence;
+        final long[] evidenceAncestors;
+        // The closure whose rows index evidenceAncestors; null while there is no evidence.
+        Closure ancestors;
+        // Each node is entered at most once per direction.
+        final int[] queue;
+        int tail;
+        int end;
 
-        @Override
-        public int hashCode() {
-            return Objects.hash(node, prev, direction);
+        Scratch(int n) {
+            int words = (n + 63) >>> 6;
+            visitedUp = new long[words];
+            visitedDown = new long[words];
+            evidence = new long[words];
+            evidenceAncestors = new long[words];
+            queue = new int[Math.max(2 * n, 1)];
         }
 
-        @Override
-        public String toString() {
-            return node + "-" + (prev == null ? "null" : prev) + "-" + direction;
+        void clear() {
+            Arrays.fill(visitedUp, 0);
+            Arrays.fill(visitedDown, 0);
+            Arrays.fill(evidence, 0);
+            Arrays.fill(evidenceAncestors, 0);
+            ancestors = null;
         }
     }
 }
@@ -1,63 +1,274 @@
-import org.w3c.dom.*;
-import org.xml.sax.SAXException;
-
-import javax.xml.parsers.*;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.*;
 import java.util.*;
 
 public class BayesianNetwork {
     Map<String, Node> nodes;
+    private List<Node> topologicalOrder;
+    private final long version;
+    private SymbolTable symbols;
+    // Indexed by node id.
+    private Node[] byId;
+    // Built on first use.
+    private volatile Closure ancestors;
+    private volatile Closure descendants;
+    private volatile QueryReducer reducer;
+
+    public BayesianNetwork(String xmlFileName) throws IOException, XMLStreamException {
+        this(xmlFileName, false);
+    }
+
+    public BayesianNetwork(String xmlFileName, boolean printStructure) throws IOException, XMLStreamException {
+        nodes = new HashMap<>();
+        version = 0;
+        parseXML(xmlFileName, null);
+        seal();
+        if (printStructure) {
+            printNetwork();
+        }
+    }
 
-    public BayesianNetwork(String xmlFileName) throws ParserConfigurationException, IOException, SAXException {
+    // Loads the network with its large CPTs written to store and read back through memory mappings,
+    // so heap use does not grow with the size of the tables.
+    public BayesianNetwork(String xmlFileName, OffHeapCptStore store) throws IOException, XMLStreamException {
         nodes = new HashMap<>();
-        parseXML(xmlFileName);
-        printNetwork();
+        version = 0;
+        parseXML(xmlFileName, store);
+        seal();
+    }
+
+    // A network whose nodes are already linked, as read back by NetworkSnapshot. The map's iteration order
+    // is kept, and topologicalOrder may be null to have it computed on first use.
+    BayesianNetwork(Map<String, Node> nodes, List<Node> topologicalOrder) {
+        this(nodes, topologicalOrder, 0, null, null);
+    }
+
+    // As above, for the networks NetworkEditor publishes. The editor may pass the rows of the ancestor and
+    // descendant closures it keeps, indexed by node id; null rows are built on first use as usual.
+    BayesianNetwork(Map<String, Node> nodes, List<Node> topologicalOrder, long version, long[][] ancestorRows,
+                    long[][] descendantRows) {
+        this.nodes = nodes;
+        this.topologicalOrder = topologicalOrder;
+        this.version = version;
+        seal();
+        if (ancestorRows != null) {
+            ancestors = new Closure(ancestorRows);
+        }
+        if (descendantRows != null) {
+            descendants = new Closure(descendantRows);
+        }
     }
+
+    // The network is shared by concurrent queries, so nothing may change it once loaded. Node ids follow the
+    // map's iteration order.
+    private void seal() {
+        symbols = new SymbolTable(nodes.values());
+        byId = new Node[nodes.size()];
+        int id = 0;
+        for (Node node : nodes.values()) {
+            node.freeze(symbols, id);
+            byId[id++] = node;
+        }
+        nodes = Collections.unmodifiableMap(nodes);
+    }
+
+    public SymbolTable getSymbols() {
+        return symbols;
+    }
+
+    // 0 for a network loaded from a file, otherwise the number of the NetworkEditor publish that made it.
+    public long getVersion() {
+        return version;
+    }
+
     public Node getNodeByName(String nodeName) {
         return nodes.get(nodeName);
     }
-    private void parseXML(String xmlFileName) throws ParserConfigurationException, IOException, SAXException {
-        File inputFile = new File(xmlFileName);
-        DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-        Document doc = dBuilder.parse(inputFile);
-        doc.getDocumentElement().normalize();
-
-        NodeList variableList = doc.getElementsByTagName("VARIABLE");
-        for (int i = 0; i < variableList.getLength(); i++) {
-            Element variableElement = (Element) variableList.item(i);
-            String name = variableElement.getElementsByTagName("NAME").item(0).getTextContent();
-            Node node = new Node(name);
-
-            NodeList outcomeList = variableElement.getElementsByTagName("OUTCOME");
-            for (int j = 0; j < outcomeList.getLength(); j++) {
-                node.addOutcome(outcomeList.item(j).getTextContent());
+
+    public Node getNode(int id) {
+        return byId[id];
+    }
+
+    // Ids of the given nodes and of all their ancestors.
+    public BitSet getAncestors(BitSet ids) {
+        return getAncestorClosure().of(ids);
+    }
+
+    // Ids of the given nodes and of all their descendants.
+    public BitSet getDescendants(BitSet ids) {
+        Closure closure = descendants;
+        return (closure != null ? closure : closure(true)).of(ids);
+    }
+
+    // For BayesBall, which marks ancestors into its own reused bit sets.
+    Closure getAncestorClosure() {
+        Closure closure = ancestors;
+        return closure != null ? closure : closure(false);
+    }
+
+    // Query reductions are cached with the network, so every engine on it shares them.
+    QueryReducer getReducer() {
+        QueryReducer queryReducer = reducer;
+        if (queryReducer == null) {
+            synchronized (this) {
+                if (reducer == null) {
+                    reducer = new QueryReducer(this);
+                }
+                queryReducer = reducer;
             }
-            nodes.put(name, node);
         }
+        return queryReducer;
+    }
+
+    private synchronized Closure closure(boolean below) {
+        if (below) {
+            if (descendants == null) {
+                descendants = new Closure(this, true);
+            }
+            return descendants;
+        }
+        if (ancestors == null) {
+            ancestors = new Closure(this, false);
+        }
+        return ancestors;
+    }
 
-        NodeList definitionList = doc.getElementsByTagName("DEFINITION");
-        for (int i = 0; i < definitionList.getLength(); i++) {
-            Element definitionElement = (Element) definitionList.item(i);
-            String nodeName = definitionElement.getElementsByTagName("FOR").item(0).getTextContent();
-            Node node = nodes.get(nodeName);
+    // Reads the XMLBIF file in a single streaming pass. Parents are linked once all variables are known,
+    // so a DEFINITION may refer to a VARIABLE declared after it. With a store, each table is moved to it as
+    // soon as its DEFINITION ends.
+    private void parseXML(String xmlFileName, OffHeapCptStore store) throws IOException, XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
 
-            NodeList givenList = definitionElement.getElementsByTagName("GIVEN");
-            List<String> parents = new ArrayList<>();
-            for (int j = 0; j < givenList.getLength(); j++) {
-                String parentName = givenList.item(j).getTextContent();
-                Node parentNode = nodes.get(parentName);
+        List<String> definedNodes = new ArrayList<>();
+        List<List<String>> definedParents = new ArrayList<>();
+        List<double[]> definedTables = new ArrayList<>();
+        List<Integer> storedTables = new ArrayList<>();
+
+        try (InputStream in = new BufferedInputStream(new FileInputStream(xmlFileName), 1 << 16)) {
+            XMLStreamReader reader = factory.createXMLStreamReader(in);
+            try {
+                boolean inVariable = false;
+                Node variable = null;
+                String forName = null;
+                List<String> given = null;
+                double[] table = null;
+
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.END_ELEMENT) {
+                        String tag = reader.getLocalName();
+                        if (tag.equals("VARIABLE")) {
+                            inVariable = false;
+                            variable = null;
+                        } else if (tag.equals("DEFINITION")) {
+                            if (forName == null || table == null) {
+                                throw new XMLStreamException("DEFINITION without FOR or TABLE", reader.getLocation());
+                            }
+                            definedNodes.add(forName);
+                            definedParents.add(given);
+                            if (store != null) {
+                                storedTables.add(store.append(table));
+                            } else {
+                                definedTables.add(table);
+                            }
+                        }
+                        continue;
+                    }
+                    if (event != XMLStreamConstants.START_ELEMENT) {
+                        continue;
+                    }
+
+                    switch (reader.getLocalName()) {
+                        case "VARIABLE":
+                            inVariable = true;
+                            break;
+                        case "DEFINITION":
+                            forName = null;
+                            given = new ArrayList<>();
+                            table = null;
+                            break;
+                        case "NAME":
+                            if (inVariable) {
+                                String name = reader.getElementText().trim();
+                                variable = new Node(name);
+                                nodes.put(name, variable);
+                            }
+                            break;
+                        case "OUTCOME":
+                            if (variable != null) {
+                                variable.addOutcome(reader.getElementText().trim());
+                            }
+                            break;
+                        case "FOR":
+                            forName = reader.getElementText().trim();
+                            break;
+                        case "GIVEN":
+                            given.add(reader.getElementText().trim());
+                            break;
+                        case "TABLE":
+                            table = parseTable(reader.getElementText());
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        if (store != null) {
+            store.map();
+        }
+        for (int i = 0; i < definedNodes.size(); i++) {
+            Node node = requireNode(definedNodes.get(i));
+            for (String parentName : definedParents.get(i)) {
+                Node parentNode = requireNode(parentName);
                 node.addParent(parentNode);
                 parentNode.addChild(node);
-                parents.add(parentName);
             }
+            node.setTable(store != null ? store.table(storedTables.get(i)) : CptTable.of(definedTables.get(i)));
+        }
+    }
 
-            String[] table = definitionElement.getElementsByTagName("TABLE").item(0).getTextContent().trim().split(" ");
-            node.setCPT(parents, table);
+    private Node requireNode(String name) {
+        Node node = nodes.get(name);
+        if (node == null) {
+            throw new IllegalArgumentException("Unknown variable in DEFINITION: " + name);
         }
+        return node;
     }
 
-    private void printNetwork() {
+    private static double[] parseTable(String text) {
+        double[] values = new double[16];
+        int count = 0;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && Character.isWhitespace(text.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < length && !Character.isWhitespace(text.charAt(i))) {
+                i++;
+            }
+            if (start < i) {
+                if (count == values.length) {
+                    values = Arrays.copyOf(values, count * 2);
+                }
+                values[count++] = Double.parseDouble(text.substring(start, i));
+            }
+        }
+        return Arrays.copyOf(values, count);
+    }
+
+    void printNetwork() {
         System.out.println("Bayesian Network Structure:");
 
         List<Node> topologicallySortedNodes = topologicalSort();
@@ -86,13 +297,49 @@ public class BayesianNetwork {
     }
 
     List<Node> topologicalSort() {
+        List<Node> order = topologicalOrder;
+        if (order == null) {
+            order = Collections.unmodifiableList(computeTopologicalOrder());
+            topologicalOrder = order;
+        }
+        return new ArrayList<>(order);
+    }
+
+    // Reverse post-order of a depth-first search along child edges. The search keeps its own stack of child
+    // iterators, so a deep network cannot overflow the call stack.
+    private List<Node> computeTopologicalOrder() {
         List<Node> sortedNodes = new ArrayList<>();
         Set<Node> visited = new HashSet<>();
         Set<Node> visiting = new HashSet<>();
+        Deque<Node> path = new ArrayDeque<>();
+        Deque<Iterator<Node>> pending = new ArrayDeque<>();
 
-        for (Node node : nodes.values()) {
-            if (!visited.contains(node)) {
-                topologicalSortUtil(node, visited, visiting, sortedNodes);
+        for (Node root : nodes.values()) {
+            if (visited.contains(root)) {
+                continue;
+            }
+            visiting.add(root);
+            path.push(root);
+            pending.push(root.getChildren().iterator());
+            while (!path.isEmpty()) {
+                Iterator<Node> children = pending.peek();
+                if (children.hasNext()) {
+                    Node child = children.next();
+                    if (!visited.contains(child)) {
+                        if (visiting.contains(child)) {
+                            throw new IllegalStateException("The network contains a cycle.");
+                        }
+                        visiting.add(child);
+                        path.push(child);
+                        pending.push(child.getChildren().iterator());
+                    }
+                    continue;
+                }
+                Node node = path.pop();
+                pending.pop();
+                visiting.remove(node);
+                visited.add(node);
+                sortedNodes.add(node);
             }
         }
 
@@ -100,39 +347,26 @@ public class BayesianNetwork {
         return sortedNodes;
     }
 
-    private void topologicalSortUtil(Node node, Set<Node> visited, Set<Node> visiting, List<Node> sortedNodes) {
-        visiting.add(node);
-
-        for (Node child : node.getChildren()) {
-            if (!visited.contains(child)) {
-                if (visiting.contains(child)) {
-                    throw new IllegalStateException("The network contains a cycle.");
-                }
-                topologicalSortUtil(child, visited, visiting, sortedNodes);
-            }
-        }
-
-        visiting.remove(node);
-        visited.add(node);
-        sortedNodes.add(node);
-    }
     public Map<String, Node> getNodes() {
         return nodes;
     }
 
 }
 class Node {
-    private String name;
+    private final String name;
     private List<String> outcomes;
     private List<Node> parents;
     private List<Node> children;
-    private Map<List<String>, Double> cpt;
+    private CptTable table;
+    private boolean frozen;
+    // Set when the node's network is loaded; its outcome ids are the outcome positions.
+    private SymbolTable symbols;
+    private int id = -1;
     public Node(String name) {
             this.name = name;
             this.outcomes = new ArrayList<>();
             this.parents = new ArrayList<>();
             this.children = new ArrayList<>();
-            this.cpt = new HashMap<>();
     }
     public String getName() {
             return name;
@@ -177,37 +411,83 @@ class Node {
         children.add(child);
     }
 
-    public Map<List<String>, Double> getCPT() {
-        return cpt;
+    public int getCardinality() {
+        return outcomes.size();
     }
 
-    public void setCPT(List<String> parents, String[] table) {
-        int numParents = parents.size();
-        int numOutcomes = (int) Math.pow(2, numParents); // Correct number of combinations for the parents' outcomes
-        for (int i = 0; i < numOutcomes; i++) {
-            List<String> keyT = new ArrayList<>();
-            List<String> keyF = new ArrayList<>();
-            for (int j = 0; j < numParents; j++) {
-                int outcomeIndex = (i / (int) Math.pow(2, numParents - 1 - j)) % 2; // Iterate correctly through combinations
-                keyT.add(parents.get(j) + "=" + (outcomeIndex == 0 ? "T" : "F"));
-                keyF.add(parents.get(j) + "=" + (outcomeIndex == 0 ? "T" : "F"));
-            }
-            keyT.add(name + "=T");
-            keyF.add(name + "=F");
-            double trueProbability = Double.parseDouble(table[2 * i]);
-            double falseProbability = Double.parseDouble(table[2 * i + 1]);
-            cpt.put(keyT, trueProbability);
-            cpt.put(keyF, falseProbability);
-        }
+    // Mixed-radix CPT: the first parent is the most significant digit and the node's own outcome the least.
+    // For a heap table the array is shared with every reader and must not be modified; an off-heap table
+    // is copied, so inference reads getCptTable() instead.
+    public double[] getTable() {
+        return table != null ? table.toArray() : null;
     }
-    public Factor toFactor() {
-        List<String> factorVariables = new ArrayList<>(parents.size() + 1);
+
+    public CptTable getCptTable() {
+        return table;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    SymbolTable getSymbols() {
+        return symbols;
+    }
+
+    void freeze(SymbolTable symbols, int id) {
+        this.symbols = symbols;
+        this.id = id;
+        outcomes = Collections.unmodifiableList(outcomes);
+        parents = Collections.unmodifiableList(parents);
+        children = Collections.unmodifiableList(children);
+        frozen = true;
+    }
+
+    public void setTable(double[] table) {
+        setTable(CptTable.of(table));
+    }
+
+    public void setTable(CptTable table) {
+        if (frozen) {
+            throw new UnsupportedOperationException("The CPT of " + name + " is read-only once the network is loaded.");
+        }
+        int expected = getCardinality();
         for (Node parent : parents) {
-            factorVariables.add(parent.getName());
+            expected *= parent.getCardinality();
+        }
+        if (table.size() != expected) {
+            throw new IllegalArgumentException("CPT of " + name + " has " + table.size() + " entries, expected " + expected + ".");
         }
-        factorVariables.add(name);
+        this.table = table;
+    }
 
-        return new Factor(factorVariables, cpt);
+    // String-keyed view of the CPT, built on demand; inference reads getCptTable() directly.
+    public Map<List<String>, Double> getCPT() {
+        Map<List<String>, Double> cpt = new HashMap<>();
+        if (table == null) {
+            return cpt;
+        }
+        int[] counter = new int[parents.size() + 1];
+        for (int index = 0; index < table.size(); index++) {
+            List<String> key = new ArrayList<>(counter.length);
+            for (int j = 0; j < parents.size(); j++) {
+                Node parent = parents.get(j);
+                key.add(parent.getName() + "=" + parent.getOutcomes().get(counter[j]));
+            }
+            key.add(name + "=" + outcomes.get(counter[parents.size()]));
+            cpt.put(key, table.get(index));
+            for (int j = counter.length - 1; j >= 0; j--) {
+                int cardinality = j == parents.size() ? getCardinality() : parents.get(j).getCardinality();
+                if (++counter[j] < cardinality) {
+                    break;
+                }
+                counter[j] = 0;
+            }
+        }
+        return cpt;
+    }
+    public Factor toFactor() {
+        return new Factor(this, Collections.emptyMap());
     }
 }
 
@@ -0,0 +1,157 @@
+import java.util.*;
+
+// The transitive ancestors (or descendants) of every node of a network, so that "everything above these nodes"
+// is a few word-wise ORs rather than a traversal per query. Results are bit sets over rows, which mark fills in
+// without allocating; of translates them into node ids.
+//
+// Rows are indexed by topological position. A node's ancestors all come before it, so the row of the node at
+// position p needs at most p bits; descendant rows count positions from the end, which makes them just as short.
+// A row is the union of its parents' rows and those lie in earlier chunks, so rows are built on first use, a
+// chunk of CHUNK positions at a time, up to the last row a query needs. A network whose rows would take more
+// than MAX_BYTES never builds them and answers with a breadth-first traversal instead.
+//
+// NetworkEditor keeps these sets as it edits and hands them over whole. Their rows are indexed by node id
+// instead, which mark and marked hide, and are all built already.
+class Closure {
+    private static final int CHUNK = 1024;
+    static final long MAX_BYTES = 256L << 20;
+
+    private final int n;
+    // The node id of each row, and the row of each node id.
+    private final int[] idAt;
+    private final int[] rowOf;
+    // The rows of each row's parents (or children), all smaller than the row itself.
+    private final int[][] links;
+    private final boolean materialized;
+    // Row r as words of bits over rows, all below r when the rows are positions.
+    private final long[][] rows;
+    private volatile int built;
+
+    Closure(BayesianNetwork network, boolean descendants) {
+        List<Node> order = network.topologicalSort();
+        this.n = order.size();
+        this.idAt = new int[n];
+        this.rowOf = new int[n];
+        for (int p = 0; p < n; p++) {
+            int row = descendants ? n - 1 - p : p;
+            idAt[row] = order.get(p).getId();
+            rowOf[idAt[row]] = row;
+        }
+        this.links = new int[n][];
+        for (int row = 0; row < n; row++) {
+            Node node = network.getNode(idAt[row]);
+            List<Node> linked = descendants ? node.getChildren() : node.getParents();
+            links[row] = new int[linked.size()];
+            for (int i = 0; i < links[row].length; i++) {
+                links[row][i] = rowOf[linked.get(i).getId()];
+            }
+        }
+        // Rows take n * n / 2 bits in all.
+        this.materialized = (long) n * n / 16 <= MAX_BYTES;
+        this.rows = materialized ? new long[n][] : null;
+    }
+
+    // Rows computed elsewhere, row id holding the ids of node id's ancestors (or descendants).
+    Closure(long[][] rows) {
+        this.n = rows.length;
+        this.idAt = new int[n];
+        for (int id = 0; id < n; id++) {
+            idAt[id] = id;
+        }
+        this.rowOf = idAt;
+        this.links = null;
+        this.materialized = true;
+        this.rows = rows;
+        this.built = n;
+    }
+
+    // Ids of the given nodes and of all their ancestors (or descendants).
+    BitSet of(BitSet ids) {
+        long[] closure = new long[(n + 63) >>> 6];
+        mark(ids.stream().toArray(), closure, materialized ? null : new int[n]);
+
+        BitSet result = new BitSet(n);
+        for (int w = 0; w < closure.length; w++) {
+            for (long word = closure[w]; word != 0; word &= word - 1) {
+                result.set(idAt[(w << 6) + Long.numberOfTrailingZeros(word)]);
+            }
+        }
+        return result;
+    }
+
+    // Sets the rows of the given nodes and of all their ancestors (or descendants) in bits, which needs a
+    // word per 64 nodes. queue is scratch of at least n entries for a network whose rows are not built.
+    void mark(int[] ids, long[] bits, int[] queue) {
+        if (!materialized) {
+            traverse(ids, bits, queue);
+            return;
+        }
+        int last = -1;
+        for (int id : ids) {
+            last = Math.max(last, rowOf[id]);
+        }
+        build(last);
+        for (int id : ids) {
+            int row = rowOf[id];
+            long[] words = rows[row];
+            for (int w = 0; w < words.length; w++) {
+                bits[w] |= words[w];
+            }
+            set(bits, row);
+        }
+    }
+
+    // Whether mark set the node's row in bits.
+    boolean marked(long[] bits, int id) {
+        int row = rowOf[id];
+        return (bits[row >>> 6] & (1L << row)) != 0;
+    }
+
+    private static void set(long[] bits, int i) {
+        bits[i >>> 6] |= 1L << i;
+    }
+
+    private void build(int last) {
+        if (last < built) {
+            return;
+        }
+        synchronized (this) {
+            int from = built;
+            while (from <= last) {
+                int to = Math.min(n, from + CHUNK);
+                for (int row = from; row < to; row++) {
+                    long[] closure = new long[(row + 63) >>> 6];
+                    for (int link : links[row]) {
+                        long[] words = rows[link];
+                        for (int w = 0; w < words.length; w++) {
+                            closure[w] |= words[w];
+                        }
+                        set(closure, link);
+                    }
+                    rows[row] = closure;
+                }
+                from = to;
+                built = to;
+            }
+        }
+    }
+
+    private void traverse(int[] ids, long[] bits, int[] queue) {
+        int tail = 0;
+        for (int id : ids) {
+            int row = rowOf[id];
+            if ((bits[row >>> 6] & (1L << row)) == 0) {
+                set(bits, row);
+                queue[tail++] = row;
+            }
+        }
+        for (int head = 0; head < tail; head++) {
+            for (int link : links[queue[head]]) {
+                if ((bits[link >>> 6] & (1L << link)) == 0) {
+                    set(bits, link);
+                    queue[tail++] = link;
+                }
+            }
+        }
+    }
+}
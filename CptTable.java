@@ -0,0 +1,88 @@
+import java.nio.DoubleBuffer;
+
+// Read-only CPT values addressed by mixed-radix index, either in a heap array or in a file mapped by
+// OffHeapCptStore. Factor reads through get, so both kinds are instantiated the same way.
+public abstract class CptTable {
+    public abstract int size();
+
+    public abstract double get(int index);
+
+    // The values as a heap array: the backing array of a heap table, a fresh copy of a mapped one.
+    public abstract double[] toArray();
+
+    public boolean isOffHeap() {
+        return false;
+    }
+
+    public static CptTable of(double[] values) {
+        return new Heap(values);
+    }
+
+    private static final class Heap extends CptTable {
+        private final double[] values;
+
+        Heap(double[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+
+        @Override
+        public double get(int index) {
+            return values[index];
+        }
+
+        @Override
+        public double[] toArray() {
+            return values;
+        }
+    }
+
+    // A run of doubles starting at a given position in a sequence of equally sized mapped chunks.
+    static final class Mapped extends CptTable {
+        private final DoubleBuffer[] chunks;
+        private final int chunkShift;
+        private final long chunkMask;
+        private final long start;
+        private final int size;
+
+        Mapped(DoubleBuffer[] chunks, int chunkShift, long start, int size) {
+            this.chunks = chunks;
+            this.chunkShift = chunkShift;
+            this.chunkMask = (1L << chunkShift) - 1;
+            this.start = start;
+            this.size = size;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public double get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+            }
+            long position = start + index;
+            return chunks[(int) (position >>> chunkShift)].get((int) (position & chunkMask));
+        }
+
+        @Override
+        public double[] toArray() {
+            double[] values = new double[size];
+            for (int i = 0; i < size; i++) {
+                values[i] = get(i);
+            }
+            return values;
+        }
+
+        @Override
+        public boolean isOffHeap() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,323 @@
+import java.util.*;
+
+// Greedy elimination-order search on the interaction (moral) graph of a set of factors.
+public class EliminationOrdering {
+    public enum Heuristic {
+        MIN_DEGREE,
+        MIN_FILL,
+        WEIGHTED_MIN_FILL
+    }
+
+    private static final long DEFAULT_SEED = 0x5DEECE66DL;
+
+    private final int restarts;
+    private final long seed;
+
+    public EliminationOrdering() {
+        this(4, DEFAULT_SEED);
+    }
+
+    public EliminationOrdering(int restarts, long seed) {
+        if (restarts < 1) {
+            throw new IllegalArgumentException("At least one run per heuristic is required.");
+        }
+        this.restarts = restarts;
+        this.seed = seed;
+    }
+
+    // Tries every heuristic several times with random tie-breaking and keeps the order whose largest
+    // intermediate factor is smallest. Variables outside toEliminate stay in the graph but are never removed.
+    public Plan plan(Collection<List<String>> scopes, Map<String, Integer> cardinalities, Collection<String> toEliminate) {
+        List<String> names = new ArrayList<>();
+        Map<String, Integer> ids = new HashMap<>();
+        for (List<String> scope : scopes) {
+            for (String variable : scope) {
+                if (!ids.containsKey(variable)) {
+                    ids.put(variable, names.size());
+                    names.add(variable);
+                }
+            }
+        }
+        for (String variable : toEliminate) {
+            if (!ids.containsKey(variable)) {
+                ids.put(variable, names.size());
+                names.add(variable);
+            }
+        }
+
+        int n = names.size();
+        double[] weights = new double[n];
+        for (int i = 0; i < n; i++) {
+            weights[i] = cardinalities.getOrDefault(names.get(i), 2);
+        }
+        // The moral graph as neighbour lists: every pair of variables sharing a scope, once.
+        int pairs = 0;
+        for (List<String> scope : scopes) {
+            pairs += scope.size() * (scope.size() - 1);
+        }
+        long[] edges = new long[pairs];
+        int e = 0;
+        for (List<String> scope : scopes) {
+            for (String a : scope) {
+                for (String b : scope) {
+                    if (!a.equals(b)) {
+                        edges[e++] = (long) ids.get(a) * n + ids.get(b);
+                    }
+                }
+            }
+        }
+        Arrays.sort(edges, 0, e);
+        int[] degree = new int[n];
+        for (int i = 0; i < e; i++) {
+            if (i == 0 || edges[i] != edges[i - 1]) {
+                degree[(int) (edges[i] / n)]++;
+            }
+        }
+        int[][] moralGraph = new int[n][];
+        for (int v = 0; v < n; v++) {
+            moralGraph[v] = new int[degree[v]];
+            degree[v] = 0;
+        }
+        for (int i = 0; i < e; i++) {
+            if (i == 0 || edges[i] != edges[i - 1]) {
+                int v = (int) (edges[i] / n);
+                moralGraph[v][degree[v]++] = (int) (edges[i] % n);
+            }
+        }
+        boolean[] eliminable = new boolean[n];
+        for (String variable : toEliminate) {
+            eliminable[ids.get(variable)] = true;
+        }
+
+        Random random = new Random(seed);
+        Plan best = null;
+        for (Heuristic heuristic : Heuristic.values()) {
+            for (int run = 0; run < restarts; run++) {
+                Plan candidate = new Greedy(heuristic, moralGraph, weights, run == 0 ? null : random)
+                        .run(eliminable, names);
+                if (best == null || candidate.isBetterThan(best)) {
+                    best = candidate;
+                }
+            }
+        }
+        return best;
+    }
+
+    // One greedy run on its own copy of the graph. Scores wait in a priority queue; eliminating a variable only
+    // changes the degree of its neighbours and the fill of those and their neighbours, so only they are scored
+    // again, and entries left behind by a new score are skipped when they come up.
+    private static final class Greedy {
+        private final Heuristic heuristic;
+        private final double[] weights;
+        private final int[][] graph;
+        private final int[] degree;
+        // Ties are broken by position on the first run of each heuristic, by a random key per variable on restarts.
+        private final long[] ties;
+        private final int[] version;
+        // Scratch marks for membership tests, valid while they hold the current stamp.
+        private final int[] marks;
+        private int stamp;
+
+        Greedy(Heuristic heuristic, int[][] moralGraph, double[] weights, Random random) {
+            int n = moralGraph.length;
+            this.heuristic = heuristic;
+            this.weights = weights;
+            this.graph = new int[n][];
+            this.degree = new int[n];
+            this.ties = new long[n];
+            for (int v = 0; v < n; v++) {
+                graph[v] = moralGraph[v].clone();
+                degree[v] = graph[v].length;
+                ties[v] = random == null ? v : random.nextLong();
+            }
+            this.version = new int[n];
+            this.marks = new int[n];
+        }
+
+        Plan run(boolean[] eliminable, List<String> names) {
+            int n = graph.length;
+            PriorityQueue<Candidate> queue = new PriorityQueue<>();
+            int remaining = 0;
+            for (int v = 0; v < n; v++) {
+                if (eliminable[v]) {
+                    queue.add(new Candidate(v, score(v), ties[v], 0));
+                    remaining++;
+                }
+            }
+
+            boolean[] eliminated = new boolean[n];
+            int[] affected = new int[n];
+            List<String> order = new ArrayList<>(remaining);
+            int inducedWidth = 0;
+            double largestFactor = 0;
+            double totalSize = 0;
+            while (remaining > 0) {
+                Candidate next = queue.poll();
+                if (next.version != version[next.variable]) {
+                    continue;
+                }
+                int chosen = next.variable;
+                int[] neighbours = Arrays.copyOf(graph[chosen], degree[chosen]);
+                double cliqueSize = weights[chosen];
+                for (int u : neighbours) {
+                    cliqueSize *= weights[u];
+                }
+                inducedWidth = Math.max(inducedWidth, neighbours.length);
+                largestFactor = Math.max(largestFactor, cliqueSize);
+                totalSize += cliqueSize;
+
+                for (int u : neighbours) {
+                    remove(u, chosen);
+                    stamp++;
+                    for (int i = 0; i < degree[u]; i++) {
+                        marks[graph[u][i]] = stamp;
+                    }
+                    for (int w : neighbours) {
+                        if (w != u && marks[w] != stamp) {
+                            add(u, w);
+                        }
+                    }
+                }
+                degree[chosen] = 0;
+                eliminated[chosen] = true;
+                order.add(names.get(chosen));
+                remaining--;
+
+                // The neighbours, and for fill their neighbours too, each once.
+                stamp++;
+                int count = 0;
+                for (int u : neighbours) {
+                    if (marks[u] != stamp) {
+                        marks[u] = stamp;
+                        affected[count++] = u;
+                    }
+                    if (heuristic != Heuristic.MIN_DEGREE) {
+                        for (int i = 0; i < degree[u]; i++) {
+                            int w = graph[u][i];
+                            if (marks[w] != stamp) {
+                                marks[w] = stamp;
+                                affected[count++] = w;
+                            }
+                        }
+                    }
+                }
+                for (int i = 0; i < count; i++) {
+                    int v = affected[i];
+                    if (eliminable[v] && !eliminated[v]) {
+                        queue.add(new Candidate(v, score(v), ties[v], ++version[v]));
+                    }
+                }
+            }
+            return new Plan(order, heuristic, inducedWidth, largestFactor, totalSize);
+        }
+
+        private double score(int v) {
+            if (heuristic == Heuristic.MIN_DEGREE) {
+                return degree[v];
+            }
+            double fill = 0;
+            int[] neighbours = graph[v];
+            for (int i = 0; i < degree[v]; i++) {
+                int a = neighbours[i];
+                stamp++;
+                for (int j = 0; j < degree[a]; j++) {
+                    marks[graph[a][j]] = stamp;
+                }
+                for (int j = 0; j < degree[v]; j++) {
+                    int b = neighbours[j];
+                    if (a < b && marks[b] != stamp) {
+                        fill += heuristic == Heuristic.MIN_FILL ? 1 : weights[a] * weights[b];
+                    }
+                }
+            }
+            return fill;
+        }
+
+        private void remove(int u, int v) {
+            int[] adjacent = graph[u];
+            for (int i = 0; i < degree[u]; i++) {
+                if (adjacent[i] == v) {
+                    adjacent[i] = adjacent[--degree[u]];
+                    return;
+                }
+            }
+        }
+
+        private void add(int u, int v) {
+            if (degree[u] == graph[u].length) {
+                graph[u] = Arrays.copyOf(graph[u], Math.max(4, 2 * degree[u]));
+            }
+            graph[u][degree[u]++] = v;
+        }
+    }
+
+    private static final class Candidate implements Comparable<Candidate> {
+        private final int variable;
+        private final double score;
+        private final long tie;
+        private final int version;
+
+        Candidate(int variable, double score, long tie, int version) {
+            this.variable = variable;
+            this.score = score;
+            this.tie = tie;
+            this.version = version;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            if (score != other.score) {
+                return Double.compare(score, other.score);
+            }
+            if (tie != other.tie) {
+                return Long.compare(tie, other.tie);
+            }
+            return Integer.compare(variable, other.variable);
+        }
+    }
+
+    public static class Plan {
+        private final List<String> order;
+        private final Heuristic heuristic;
+        private final int inducedWidth;
+        private final double largestFactor;
+        private final double totalSize;
+
+        Plan(List<String> order, Heuristic heuristic, int inducedWidth, double largestFactor, double totalSize) {
+            this.order = Collections.unmodifiableList(order);
+            this.heuristic = heuristic;
+            this.inducedWidth = inducedWidth;
+            this.largestFactor = largestFactor;
+            this.totalSize = totalSize;
+        }
+
+        boolean isBetterThan(Plan other) {
+            if (largestFactor != other.largestFactor) {
+                return largestFactor < other.largestFactor;
+            }
+            return totalSize < other.totalSize;
+        }
+
+        public List<String> getOrder() {
+            return order;
+        }
+
+        public Heuristic getHeuristic() {
+            return heuristic;
+        }
+
+        public int getInducedWidth() {
+            return inducedWidth;
+        }
+
+        // Entries in the largest factor created while eliminating, counting evidence variables as fixed.
+        public double getLargestFactor() {
+            return largestFactor;
+        }
+
+        @Override
+        public String toString() {
+            return heuristic + " order=" + order + " width=" + inducedWidth + " largest=" + (long) largestFactor;
+        }
+    }
+}
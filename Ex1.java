@@ -1,51 +1,124 @@
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import javax.xml.parsers.*;
 import org.w3c.dom.*;
 import org.xml.sax.SAXException;
 import java.util.*;
 
 public class Ex1 {
+    // With --planner, each chosen order and its induced width go to stderr, keeping output.txt as it was.
+    private static final InferenceListener PLAN_PRINTER = new InferenceListener() {
+        @Override
+        public void planned(String query, EliminationOrdering.Plan plan) {
+            System.err.println(query + ": " + plan);
+        }
+    };
+
     public static void main(String[] args) {
+        List<String> options = Arrays.asList(args);
+        boolean planner = options.contains("--planner");
+        boolean virtualThreads = options.contains("--virtual");
+        int threads = 1;
+        int threadsAt = options.indexOf("--threads");
+        if (threadsAt >= 0 && threadsAt + 1 < args.length) {
+            threads = Integer.parseInt(args[threadsAt + 1]);
+        }
+        int metricsAt = options.indexOf("--metrics");
+        String metricsFile = metricsAt >= 0 && metricsAt + 1 < args.length ? args[metricsAt + 1] : null;
+        boolean stats = options.contains("--stats");
+        boolean snapshot = options.contains("--snapshot");
+        boolean offHeap = options.contains("--off-heap");
+        int cacheAt = options.indexOf("--cache-mb");
+        long cacheBytes = cacheAt >= 0 && cacheAt + 1 < args.length ? Long.parseLong(args[cacheAt + 1]) << 20 : 0;
+        int parallelAt = options.indexOf("--parallel-threshold");
+        if (parallelAt >= 0 && parallelAt + 1 < args.length) {
+            Factor.setParallelThreshold(Integer.parseInt(args[parallelAt + 1]));
+        }
+        // --stream answers queries while reading them instead of after the whole file; --pipe does the same
+        // from stdin to stdout.
+        boolean pipe = options.contains("--pipe");
+        boolean stream = pipe || options.contains("--stream");
+        int windowAt = options.indexOf("--window");
+        int window = windowAt >= 0 && windowAt + 1 < args.length ? Integer.parseInt(args[windowAt + 1])
+                : BatchQueryExecutor.DEFAULT_WINDOW;
         try {
-            // Read the input file
-            BufferedReader reader = new BufferedReader(new FileReader("input.txt"));
+            // Read the input file; when streaming only its first line is read here.
+            BufferedReader reader = stream ? openInput(pipe) : new BufferedReader(new FileReader("input.txt"));
             String xmlFileName = reader.readLine();
             List<String> queries = new ArrayList<>();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                queries.add(line);
+            if (!stream) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    queries.add(line);
+                }
+                reader.close();
             }
-            reader.close();
 
-            // Parse the XML file
-            BayesianNetwork network = new BayesianNetwork(xmlFileName);
-            BayesBall bayesBall = new BayesBall(network);
-            VariableElimination variableElimination = new VariableElimination(network);
+            // Parse the XML file, or with --snapshot reuse the compiled copy saved next to it.
+            // With --off-heap large CPTs are kept in a memory-mapped temporary file instead.
+            BayesianNetwork network;
+            if (offHeap) {
+                try (OffHeapCptStore store = OffHeapCptStore.temporary()) {
+                    network = new BayesianNetwork(xmlFileName, store);
+                }
+            } else {
+                network = snapshot ? NetworkSnapshot.load(xmlFileName) : new BayesianNetwork(xmlFileName);
+            }
 
             // Handle the queries
-            List<String> results = new ArrayList<>();
-            for (String query : queries) {
-                if (query.contains("-") && !query.startsWith("P(")) {
-                    results.add(bayesBall.run(query));
-                } else if (query.startsWith("P(")) {
-                    System.out.println("proccessing query: " + query);
-                    VariableElimination ve = new VariableElimination(network);
-                    String result = ve.run(query);
-                    results.add(result);
+            List<String> results = Collections.emptyList();
+            MetricsRecorder recorder = stats ? new MetricsRecorder() : null;
+            FactorCache cache = cacheBytes > 0 ? new FactorCache(network, cacheBytes) : null;
+            try (JsonLinesExporter exporter = metricsFile != null ? new JsonLinesExporter(metricsFile) : null;
+                 BatchQueryExecutor executor = new BatchQueryExecutor(network, threads, virtualThreads, planner)) {
+                executor.setListener(InferenceListener.of(recorder != null ? recorder : InferenceListener.NONE,
+                        exporter != null ? exporter : InferenceListener.NONE,
+                        planner ? PLAN_PRINTER : InferenceListener.NONE));
+                executor.setCache(cache);
+                if (stream) {
+                    try (BufferedReader input = reader; BufferedWriter output = openOutput(pipe)) {
+                        executor.stream(input, output, window);
+                    }
                 } else {
-                    results.add("Invalid query format");
+                    results = executor.runAll(queries);
+                }
+            }
+            if (recorder != null) {
+                System.err.println(recorder.summary());
+                if (cache != null) {
+                    System.err.println("Factor cache: " + cache);
                 }
             }
 
-            // Write the output file
-            BufferedWriter writer = new BufferedWriter(new FileWriter("output.txt"));
-            for (String result : results) {
-                writer.write(result);
-                writer.newLine();
+            // Write the output file, unless streaming already did
+            if (!stream) {
+                BufferedWriter writer = new BufferedWriter(new FileWriter("output.txt"));
+                for (String result : results) {
+                    writer.write(result);
+                    writer.newLine();
+                }
+                writer.close();
             }
-            writer.close();
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
+
+    // Channels over stdin and stdout in pipe mode, over input.txt and output.txt otherwise.
+    private static BufferedReader openInput(boolean pipe) throws IOException {
+        Reader reader = pipe ? Channels.newReader(Channels.newChannel(System.in), Charset.defaultCharset())
+                : Channels.newReader(FileChannel.open(Paths.get("input.txt"), StandardOpenOption.READ), Charset.defaultCharset());
+        return new BufferedReader(reader, 1 << 16);
+    }
+
+    private static BufferedWriter openOutput(boolean pipe) throws IOException {
+        Writer writer = pipe ? Channels.newWriter(Channels.newChannel(new FileOutputStream(FileDescriptor.out)), Charset.defaultCharset())
+                : Channels.newWriter(FileChannel.open(Paths.get("output.txt"), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE), Charset.defaultCharset());
+        return new BufferedWriter(writer, 1 << 16);
+    }
 }
@@ -1,180 +1,1240 @@
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class Factor {
-    private List<String> variables;
-    private Map<List<String>, Double> cpt;
+    // How the entries of a factor are kept between operations; see compact. Products and sums are computed in
+    // double whatever the precision, only the stored entries are rounded.
+    //  - DOUBLE keeps them as they are.
+    //  - FLOAT keeps them as floats, half the bytes. Entries of at least 2^-126 (about 1.2e-38) are off by a
+    //    relative 2^-24 at most; smaller ones by up to 2^-150 in absolute terms, so long products of small
+    //    probabilities can underflow to 0.
+    //  - SCALED_FLOAT also keeps floats, after multiplying by the power of two that brings the largest entry to
+    //    [2^126, 2^127). Scaling by a power of two is exact, so entries down to 2^-252 of the largest are off by
+    //    a relative 2^-24 at most, and smaller ones by up to 2^-276 of the largest.
+    // In VariableElimination every term of an answer is a product of non-negative entries that went through at
+    // most h roundings, h being the number of eliminated variables. Without underflow, each unnormalized entry
+    // is thus within a relative (1 + 2^-24)^h - 1 of its double value and each probability within
+    // ((1 + 2^-24) / (1 - 2^-24))^h - 1, about h * 1.2e-7, apart from double rounding.
+    public enum Precision {
+        DOUBLE,
+        FLOAT,
+        SCALED_FLOAT
+    }
+
+    static final int UNOBSERVED = -1;
+    static final int OUTSIDE_DOMAIN = -2;
+    // Tables of at least SPARSE_MIN_SIZE entries with at most this share of non-zeros keep only the non-zeros.
+    static final double SPARSE_MAX_DENSITY = 0.4;
+    static final int SPARSE_MIN_SIZE = 64;
+    // Dense products and sum-outs with at least this many output entries split their output across the
+    // common fork-join pool. Every entry is computed exactly as on one thread, so results do not depend on it.
+    private static volatile int parallelThreshold = 1 << 20;
+    private static final int MIN_TASK_SIZE = 1 << 14;
+    // Dense loops run over blocks of at least MIN_BLOCK entries in which every operand is contiguous or constant
+    // are handed to KERNELS, block by block, instead of being walked entry by entry.
+    private static final FactorKernels KERNELS = FactorKernels.load();
+    private static final int MIN_BLOCK = 8;
+
+    // Names of the variable and outcome ids below; only consulted to convert from and to strings.
+    private SymbolTable symbols;
+    private int[] variables;
+    // Outcome ids of each variable, in index order. Evidence variables keep only the observed outcome.
+    private int[][] domains;
+    private int[] cardinalities;
+    // Row-major layout: the last variable changes fastest, matching the XMLBIF table order.
+    private int[] strides;
+    private int size;
+    // Dense entries, or null while the factor is sparse.
+    private double[] values;
+    // Sparse form: positions of the non-zero entries in increasing order, and their values.
+    private int[] nonZeroIndex;
+    private double[] nonZeroValues;
+    // Compact form: the dense entries or the non-zeros as floats, times 2^compactShift. The double array they
+    // replace is null until inflate restores it, which every operation does first.
+    private float[] compactValues;
+    private int compactShift;
+    // Identifies the computation that produced these values, for FactorCache; cleared by every change but compact, which marks it with the precision.
+    private String cacheKey;
 
+    // A factor outside any network; its names are interned in SymbolTable.STANDALONE.
     public Factor(List<String> variables, Map<List<String>, Double> cpt) {
-        this.variables = variables;
-        this.cpt = cpt;
+        SymbolTable symbols = SymbolTable.STANDALONE;
+        int n = variables.size();
+        int[] ids = intern(variables);
+        List<List<Integer>> found = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            found.add(new ArrayList<>());
+        }
+        for (List<String> key : cpt.keySet()) {
+            for (int i = 0; i < n; i++) {
+                int outcome = symbols.outcome(ids[i], outcomeOf(variables.get(i), key.get(i)));
+                if (!found.get(i).contains(outcome)) {
+                    found.get(i).add(outcome);
+                }
+            }
+        }
+        int[][] domains = new int[n][];
+        for (int i = 0; i < n; i++) {
+            domains[i] = found.get(i).stream().mapToInt(Integer::intValue).toArray();
+        }
+        double[] dense = new double[init(symbols, ids, domains)];
+        for (Map.Entry<List<String>, Double> entry : cpt.entrySet()) {
+            int index = 0;
+            for (int i = 0; i < n; i++) {
+                int outcome = symbols.outcome(ids[i], outcomeOf(variables.get(i), entry.getKey().get(i)));
+                index += positionOf(domains[i], outcome) * strides[i];
+            }
+            dense[index] = entry.getValue();
+        }
+        store(dense);
+    }
+
+    // Shape only; the caller must store the entries.
+    private Factor(SymbolTable symbols, int[] variables, int[][] domains) {
+        init(symbols, variables, domains);
+    }
+
+    // A factor outside any network, with the outcomes of each variable in index order.
+    Factor(List<String> variables, List<List<String>> outcomes, double[] values) {
+        this(SymbolTable.STANDALONE, intern(variables), intern(variables, outcomes));
+        if (values.length != size) {
+            throw new IllegalArgumentException("Expected " + size + " values but got " + values.length + ".");
+        }
+        store(values);
     }
 
     public Factor(Node node, Map<String, String> evidence) {
-        this.variables = new ArrayList<>(node.getParents().stream().map(Node::getName).collect(Collectors.toList()));
-        this.variables.add(node.getName());
-        this.cpt = new HashMap<>();
+        this(node, observedOutcomes(node, evidence));
+    }
 
-        for (Map.Entry<List<String>, Double> entry : node.getCPT().entrySet()) {
-            List<String> assignment = new ArrayList<>(entry.getKey());
-            boolean consistent = true;
-            for (Node parent : node.getParents()) {
-                String parentValue = evidence.get(parent.getName());
-                if (parentValue != null && !assignment.get(variables.indexOf(parent.getName())).equals(parent.getName() + "=" + parentValue)) {
-                    consistent = false;
-                    break;
+    // observed[i] is the outcome fixed for the i-th variable of the node's scope (parents first, the node last),
+    // UNOBSERVED for a free variable, or OUTSIDE_DOMAIN when the evidence names no outcome of that variable.
+    Factor(Node node, int[] observed) {
+        if (node.getSymbols() == null) {
+            throw new IllegalStateException("Node " + node.getName() + " does not belong to a loaded network.");
+        }
+        List<Node> parents = node.getParents();
+        int n = parents.size() + 1;
+        int[] ids = new int[n];
+        int[][] domains = new int[n][];
+        for (int i = 0; i < n; i++) {
+            Node variable = i < parents.size() ? parents.get(i) : node;
+            ids[i] = variable.getId();
+            if (observed[i] == UNOBSERVED) {
+                // A network's outcome ids are the outcome positions.
+                domains[i] = new int[variable.getCardinality()];
+                for (int d = 0; d < domains[i].length; d++) {
+                    domains[i][d] = d;
                 }
+            } else if (observed[i] >= 0) {
+                domains[i] = new int[]{observed[i]};
+            } else {
+                domains[i] = new int[0];
             }
-            if (consistent) {
-                if (evidence.get(node.getName()) != null) {
-                    if (assignment.get(variables.indexOf(node.getName())).equals(node.getName() + "=" + evidence.get(node.getName()))) {
-                        this.cpt.put(assignment, entry.getValue());
-                    }
-                } else {
-                    this.cpt.put(assignment, entry.getValue());
+        }
+        double[] dense = new double[init(node.getSymbols(), ids, domains)];
+
+        int[][] offsets = new int[n][];
+        int stride = 1;
+        for (int i = n - 1; i >= 0; i--) {
+            int cardinality = (i < parents.size() ? parents.get(i) : node).getCardinality();
+            if (observed[i] == UNOBSERVED) {
+                offsets[i] = new int[cardinality];
+                for (int d = 0; d < cardinality; d++) {
+                    offsets[i][d] = d * stride;
                 }
+            } else if (observed[i] >= 0) {
+                offsets[i] = new int[]{observed[i] * stride};
+            } else {
+                offsets[i] = new int[0];
             }
+            stride *= cardinality;
         }
+        gather(node.getCptTable(), 0, offsets, dense);
+        store(dense);
     }
 
-    public Factor restrict(Map<String, String> evidenceMap) {
-        Map<List<String>, Double> newCpt = new HashMap<>();
+    private static int[] observedOutcomes(Node node, Map<String, String> evidence) {
+        List<Node> parents = node.getParents();
+        int[] observed = new int[parents.size() + 1];
+        for (int i = 0; i < observed.length; i++) {
+            Node variable = i < parents.size() ? parents.get(i) : node;
+            String value = evidence.get(variable.getName());
+            if (value == null) {
+                observed[i] = UNOBSERVED;
+            } else {
+                int outcome = variable.getOutcomes().indexOf(value);
+                observed[i] = outcome >= 0 ? outcome : OUTSIDE_DOMAIN;
+            }
+        }
+        return observed;
+    }
 
-        for (Map.Entry<List<String>, Double> entry : cpt.entrySet()) {
-            List<String> key = entry.getKey();
-            boolean isConsistent = true;
-
-            for (int i = 0; i < variables.size(); i++) {
-                String variable = variables.get(i);
-                if (evidenceMap.containsKey(variable)) {
-                    String evidenceValue = evidenceMap.get(variable);
-                    if (!key.get(i).equals(variable + "=" + evidenceValue)) {
-                        isConsistent = false;
-                        break;
-                    }
+    // Copies source[base + offsets[0][d0] + offsets[1][d1] + ...] into target, with the last digit changing fastest.
+    private static void gather(CptTable source, int base, int[][] offsets, double[] target) {
+        if (target.length == 0) {
+            return;
+        }
+        int n = offsets.length;
+        int[] counter = new int[n];
+        int offset = base;
+        for (int j = 0; j < n; j++) {
+            offset += offsets[j][0];
+        }
+        for (int out = 0; out < target.length; out++) {
+            target[out] = source.get(offset);
+            for (int j = n - 1; j >= 0; j--) {
+                int d = counter[j];
+                if (++counter[j] < offsets[j].length) {
+                    offset += offsets[j][d + 1] - offsets[j][d];
+                    break;
                 }
+                offset += offsets[j][0] - offsets[j][d];
+                counter[j] = 0;
             }
+        }
+    }
 
-            if (isConsistent) {
-                List<String> newKey = new ArrayList<>();
-                for (int i = 0; i < variables.size(); i++) {
-                    String variable = variables.get(i);
-                    if (!evidenceMap.containsKey(variable)) {
-                        newKey.add(key.get(i));
-                    }
+    // Sets up the shape for the given scope and returns the number of entries; the caller provides the values.
+    // The arrays are shared, never modified: every operation that changes the scope builds new ones.
+    private int init(SymbolTable symbols, int[] variables, int[][] domains) {
+        this.symbols = symbols;
+        this.variables = variables;
+        this.domains = domains;
+        this.cardinalities = new int[variables.length];
+        this.strides = new int[variables.length];
+        int size = 1;
+        for (int i = variables.length - 1; i >= 0; i--) {
+            cardinalities[i] = domains[i].length;
+            strides[i] = size;
+            size *= cardinalities[i];
+        }
+        this.size = size;
+        return size;
+    }
+
+    // Keeps the entries densely, or as non-zeros only when few enough of them are non-zero.
+    private void store(double[] dense) {
+        int count = 0;
+        if (dense.length >= SPARSE_MIN_SIZE) {
+            for (double value : dense) {
+                if (value != 0) {
+                    count++;
+                }
+            }
+        }
+        if (dense.length < SPARSE_MIN_SIZE || count > dense.length * SPARSE_MAX_DENSITY) {
+            this.values = dense;
+            this.nonZeroIndex = null;
+            this.nonZeroValues = null;
+            return;
+        }
+        int[] index = new int[count];
+        double[] nonZeros = new double[count];
+        int k = 0;
+        for (int i = 0; i < dense.length; i++) {
+            if (dense[i] != 0) {
+                index[k] = i;
+                nonZeros[k++] = dense[i];
+            }
+        }
+        this.values = null;
+        this.nonZeroIndex = index;
+        this.nonZeroValues = nonZeros;
+    }
+
+    // Same choice as store, from the first count (position, value) pairs in increasing position order.
+    private void storeSparse(int[] index, double[] nonZeros, int count) {
+        if (size < SPARSE_MIN_SIZE || count > size * SPARSE_MAX_DENSITY) {
+            double[] dense = new double[size];
+            for (int k = 0; k < count; k++) {
+                dense[index[k]] = nonZeros[k];
+            }
+            this.values = dense;
+            this.nonZeroIndex = null;
+            this.nonZeroValues = null;
+            return;
+        }
+        this.values = null;
+        this.nonZeroIndex = count == index.length ? index : Arrays.copyOf(index, count);
+        this.nonZeroValues = count == nonZeros.length ? nonZeros : Arrays.copyOf(nonZeros, count);
+    }
+
+    // Rounds the stored entries to the given precision and keeps them as floats until the next operation on
+    // this factor, which turns them back into doubles. Rounding is deterministic, so the factor still stands for
+    // a known computation: the cache key is kept, marked with the precision so that FactorCache never mixes
+    // steps on rounded factors with steps on exact ones.
+    void compact(Precision precision) {
+        if (precision == Precision.DOUBLE || compactValues != null) {
+            return;
+        }
+        if (cacheKey != null) {
+            cacheKey += "~" + precision.ordinal();
+        }
+        double[] stored = values != null ? values : nonZeroValues;
+        int shift = 0;
+        if (precision == Precision.SCALED_FLOAT) {
+            double largest = 0;
+            for (double value : stored) {
+                largest = Math.max(largest, Math.abs(value));
+            }
+            if (largest > 0 && largest < Double.POSITIVE_INFINITY) {
+                shift = Float.MAX_EXPONENT - 1 - Math.getExponent(largest);
+            }
+        }
+        float[] compacted = new float[stored.length];
+        for (int i = 0; i < stored.length; i++) {
+            compacted[i] = (float) Math.scalb(stored[i], shift);
+        }
+        compactValues = compacted;
+        compactShift = shift;
+        values = null;
+        nonZeroValues = null;
+    }
+
+    private void inflate() {
+        if (compactValues == null) {
+            return;
+        }
+        double[] stored = new double[compactValues.length];
+        for (int i = 0; i < stored.length; i++) {
+            stored[i] = Math.scalb((double) compactValues[i], -compactShift);
+        }
+        if (nonZeroIndex != null) {
+            nonZeroValues = stored;
+        } else {
+            values = stored;
+        }
+        compactValues = null;
+    }
+
+    private double valueAt(int index) {
+        inflate();
+        if (values != null) {
+            return values[index];
+        }
+        int k = Arrays.binarySearch(nonZeroIndex, index);
+        return k >= 0 ? nonZeroValues[k] : 0;
+    }
+
+    boolean isSparse() {
+        return nonZeroIndex != null;
+    }
+
+    // Number of stored entries: all of them when dense, the non-zeros when sparse.
+    int storedEntries() {
+        return nonZeroIndex != null ? nonZeroIndex.length : size;
+    }
+
+    private static String outcomeOf(String variable, String assignment) {
+        return assignment.substring(variable.length() + 1);
+    }
+
+    private static int[] intern(List<String> variables) {
+        int[] ids = new int[variables.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = SymbolTable.STANDALONE.variable(variables.get(i));
+        }
+        return ids;
+    }
+
+    private static int[][] intern(List<String> variables, List<List<String>> outcomes) {
+        int[][] domains = new int[variables.size()][];
+        for (int i = 0; i < domains.length; i++) {
+            int id = SymbolTable.STANDALONE.variable(variables.get(i));
+            domains[i] = new int[outcomes.get(i).size()];
+            for (int d = 0; d < domains[i].length; d++) {
+                domains[i][d] = SymbolTable.STANDALONE.outcome(id, outcomes.get(i).get(d));
+            }
+        }
+        return domains;
+    }
+
+    // Position of the value in array, or -1.
+    private static int positionOf(int[] array, int value) {
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int indexOf(int variable) {
+        return positionOf(variables, variable);
+    }
+
+    public Factor restrict(Map<String, String> evidenceMap) {
+        inflate();
+        int n = variables.length;
+        int[] newVariables = new int[n];
+        int[][] newDomains = new int[n][];
+        int[][] keptOffsets = new int[n][];
+        int kept = 0;
+        int[] fixed = new int[n];
+        int base = 0;
+
+        for (int i = 0; i < n; i++) {
+            String value = evidenceMap.get(symbols.name(variables[i]));
+            if (value != null) {
+                int outcome = positionOf(domains[i], symbols.outcomeId(variables[i], value));
+                if (outcome < 0) {
+                    return null;
                 }
-                newCpt.put(newKey, entry.getValue());
+                fixed[i] = outcome;
+                base += outcome * strides[i];
+            } else {
+                fixed[i] = UNOBSERVED;
+                newVariables[kept] = variables[i];
+                newDomains[kept] = domains[i];
+                keptOffsets[kept++] = offsetsFor(variables[i], domains[i]);
             }
         }
 
-        if (newCpt.isEmpty()) {
+        Factor result = new Factor(symbols, Arrays.copyOf(newVariables, kept), Arrays.copyOf(newDomains, kept));
+        if (result.size == 0) {
             return null;
         }
+        if (values != null) {
+            double[] dense = new double[result.size];
+            gather(CptTable.of(values), base, Arrays.copyOf(keptOffsets, kept), dense);
+            result.store(dense);
+            return result;
+        }
 
-        List<String> newVariables = new ArrayList<>();
-        for (String variable : variables) {
-            if (!evidenceMap.containsKey(variable)) {
-                newVariables.add(variable);
+        // Dropping fixed digits keeps the surviving positions in increasing order.
+        int[] index = new int[nonZeroIndex.length];
+        double[] nonZeros = new double[nonZeroIndex.length];
+        int count = 0;
+        for (int k = 0; k < nonZeroIndex.length; k++) {
+            int position = nonZeroIndex[k];
+            int out = 0;
+            int j = 0;
+            boolean consistent = true;
+            for (int i = 0; i < n; i++) {
+                int digit = position / strides[i] % cardinalities[i];
+                if (fixed[i] == UNOBSERVED) {
+                    out += digit * result.strides[j++];
+                } else if (digit != fixed[i]) {
+                    consistent = false;
+                    break;
+                }
             }
+            if (consistent) {
+                index[count] = out;
+                nonZeros[count++] = nonZeroValues[k];
+            }
+        }
+        result.storeSparse(index, nonZeros, count);
+        return result;
+    }
+
+    Factor copy() {
+        inflate();
+        Factor copy = new Factor(symbols, variables, domains);
+        if (values != null) {
+            copy.values = values.clone();
+        } else {
+            copy.nonZeroIndex = nonZeroIndex.clone();
+            copy.nonZeroValues = nonZeroValues.clone();
         }
+        return copy;
+    }
 
-        return new Factor(newVariables, newCpt);
+    String getCacheKey() {
+        return cacheKey;
+    }
+
+    void setCacheKey(String cacheKey) {
+        this.cacheKey = cacheKey;
     }
 
     public boolean containsVariable(String variable) {
-        return variables.contains(variable);
+        return containsVariable(symbols.id(variable));
+    }
+
+    boolean containsVariable(int variable) {
+        return indexOf(variable) >= 0;
     }
 
     public int[] sumOut(String variable) {
-        int index = variables.indexOf(variable);
+        return sumOut(symbols.id(variable));
+    }
+
+    int[] sumOut(int variable) {
+        cacheKey = null;
+        inflate();
+        int index = indexOf(variable);
         if (index == -1) {
             throw new IllegalArgumentException("Variable not found in factor.");
         }
 
-        List<String> newVariables = new ArrayList<>(variables);
-        newVariables.remove(variable);
-
-        Map<List<String>, Double> newCpt = new HashMap<>();
-        int additionCount = 0;
+        Scope scope = new Scope(this);
+        scope.remove(index);
+        int[] newVariables = scope.variables();
+        int[][] newOutcomes = scope.domains();
 
-        for (Map.Entry<List<String>, Double> entry : cpt.entrySet()) {
-            List<String> key = entry.getKey();
-            List<String> newKey = new ArrayList<>(key);
-            newKey.remove(index);
+        int cardinality = cardinalities[index];
+        if (cardinality == 0) {
+            // An empty sum: every remaining entry is zero.
+            init(symbols, newVariables, newOutcomes);
+            store(new double[size]);
+            return new int[]{0, 0};
+        }
+        int inner = strides[index];
+        int block = cardinality * inner;
+        int outer = block == 0 ? 0 : size / block;
+        int outSize = outer * inner;
+        int additionCount = outSize * (cardinality - 1);
 
-            double value = entry.getValue();
-            if (newCpt.containsKey(newKey)) {
-                value += newCpt.get(newKey);
-                additionCount++;
+        if (values != null) {
+            double[] source = values;
+            double[] newValues = new double[outSize];
+            // Each task fills its own slice of newValues, adding every entry's terms in outcome order.
+            if (inner == 1) {
+                forRange(outSize, (from, to) ->
+                        KERNELS.sumRows(source, from * cardinality, cardinality, newValues, from, to - from));
+            } else if (inner >= MIN_BLOCK) {
+                forRange(outSize, (from, to) -> {
+                    for (int out = from; out < to; ) {
+                        int i = out % inner;
+                        int length = Math.min(inner - i, to - out);
+                        KERNELS.sumBlocks(source, out / inner * block + i, inner, cardinality, newValues, out, length);
+                        out += length;
+                    }
+                });
+            } else {
+                forRange(outSize, (from, to) -> {
+                    int o = from / inner;
+                    int i = from % inner;
+                    for (int out = from; out < to; out++) {
+                        int offset = o * block + i;
+                        double sum = 0;
+                        for (int d = 0; d < cardinality; d++) {
+                            sum += source[offset + d * inner];
+                        }
+                        newValues[out] = sum;
+                        if (++i == inner) {
+                            i = 0;
+                            o++;
+                        }
+                    }
+                });
             }
-            newCpt.put(newKey, value);
+            init(symbols, newVariables, newOutcomes);
+            store(newValues);
+            return new int[]{additionCount, 0};
         }
 
-        this.variables = newVariables;
-        this.cpt = newCpt;
+        // Sort the non-zeros by output position; ties keep their input order, so each output entry
+        // is summed in the same order as the dense loop above.
+        long[] keys = new long[nonZeroIndex.length];
+        for (int k = 0; k < keys.length; k++) {
+            int position = nonZeroIndex[k];
+            long out = (long) (position / block) * inner + position % inner;
+            keys[k] = out << 32 | k;
+        }
+        Arrays.sort(keys);
+        int[] newIndex = new int[keys.length];
+        double[] newValues = new double[keys.length];
+        int count = 0;
+        for (long key : keys) {
+            int out = (int) (key >>> 32);
+            double value = nonZeroValues[(int) key];
+            if (count > 0 && newIndex[count - 1] == out) {
+                newValues[count - 1] += value;
+            } else {
+                newIndex[count] = out;
+                newValues[count++] = value;
+            }
+        }
+        init(symbols, newVariables, newOutcomes);
+        storeSparse(newIndex, newValues, count);
         return new int[]{additionCount, 0};
     }
 
     public int[] multiply(Factor other) {
-        List<String> newVariables = new ArrayList<>(variables);
-        for (String var : other.variables) {
-            if (!newVariables.contains(var)) {
-                newVariables.add(var);
+        cacheKey = null;
+        inflate();
+        other.inflate();
+        SymbolTable common = commonSymbols(other);
+        Scope scope = new Scope(this);
+        scope.join(other);
+        int[] newVariables = scope.variables();
+        int[][] newOutcomes = scope.domains();
+
+        Factor result = new Factor(common, newVariables, newOutcomes);
+        // Counted as if every entry of the product were computed, whichever representation is used.
+        int multiplicationCount = result.size;
+        if (values != null && other.values != null) {
+            double[] newValues = multiplyDense(other, result);
+            init(common, newVariables, newOutcomes);
+            store(newValues);
+        } else {
+            multiplySparse(other, result);
+            init(common, newVariables, newOutcomes);
+            storeSparse(result.nonZeroIndex, result.nonZeroValues, result.nonZeroIndex.length);
+        }
+        return new int[]{0, multiplicationCount};
+    }
+
+    // Factors can only be combined when their ids mean the same names; a factor without variables, such as
+    // the unit factor, fits any table.
+    private SymbolTable commonSymbols(Factor other) {
+        return commonSymbols(symbols, variables.length, other);
+    }
+
+    private static SymbolTable commonSymbols(SymbolTable symbols, int variableCount, Factor other) {
+        if (symbols == other.symbols || other.variables.length == 0) {
+            return symbols;
+        }
+        if (variableCount == 0) {
+            return other.symbols;
+        }
+        throw new IllegalArgumentException("Factors of different symbol tables cannot be combined.");
+    }
+
+    // The variables and domains of a product while it is being built.
+    private static final class Scope {
+        private int[] variables;
+        private int[][] domains;
+        private int count;
+
+        Scope(Factor factor) {
+            this.variables = Arrays.copyOf(factor.variables, factor.variables.length + 4);
+            this.domains = Arrays.copyOf(factor.domains, factor.variables.length + 4);
+            this.count = factor.variables.length;
+        }
+
+        // Appends other's new variables; shared variables keep the outcomes both sides have, in this order.
+        void join(Factor other) {
+            for (int i = 0; i < other.variables.length; i++) {
+                int variable = other.variables[i];
+                int index = indexOf(variable);
+                if (index < 0) {
+                    if (count == variables.length) {
+                        variables = Arrays.copyOf(variables, count * 2);
+                        domains = Arrays.copyOf(domains, count * 2);
+                    }
+                    variables[count] = variable;
+                    domains[count++] = other.domains[i];
+                } else if (!Arrays.equals(domains[index], other.domains[i])) {
+                    int[] common = new int[domains[index].length];
+                    int kept = 0;
+                    for (int outcome : domains[index]) {
+                        if (positionOf(other.domains[i], outcome) >= 0) {
+                            common[kept++] = outcome;
+                        }
+                    }
+                    domains[index] = Arrays.copyOf(common, kept);
+                }
+            }
+        }
+
+        int indexOf(int variable) {
+            for (int i = 0; i < count; i++) {
+                if (variables[i] == variable) {
+                    return i;
+                }
             }
+            return -1;
         }
 
-        Map<List<String>, Double> newCpt = new HashMap<>();
+        void remove(int index) {
+            System.arraycopy(variables, index + 1, variables, index, count - index - 1);
+            System.arraycopy(domains, index + 1, domains, index, count - index - 1);
+            count--;
+        }
+
+        int size() {
+            int size = 1;
+            for (int i = 0; i < count; i++) {
+                size *= domains[i].length;
+            }
+            return size;
+        }
+
+        int[] variables() {
+            return Arrays.copyOf(variables, count);
+        }
+
+        int[][] domains() {
+            return Arrays.copyOf(domains, count);
+        }
+    }
+
+    // Multiplies this by each of others in turn and sums out variable, in one pass that never holds the
+    // product: every output entry takes the products for each outcome of variable and adds them up. The
+    // values, the variable order and the {additions, multiplications} are exactly those of calling multiply
+    // for each factor and then sumOut. Sparse operands take that slower path, since their kernels already
+    // skip the zeros.
+    public int[] multiplyAndSumOut(List<Factor> others, String variable) {
+        return multiplyAndSumOut(others, symbols.id(variable));
+    }
+
+    int[] multiplyAndSumOut(List<Factor> others, int variable) {
+        inflate();
+        boolean dense = values != null;
+        for (Factor other : others) {
+            other.inflate();
+            dense &= other.values != null;
+        }
+        if (!dense) {
+            int[] counts = new int[2];
+            for (Factor other : others) {
+                int[] multiplyCounts = multiply(other);
+                counts[0] += multiplyCounts[0];
+                counts[1] += multiplyCounts[1];
+            }
+            int[] sumOutCounts = sumOut(variable);
+            counts[0] += sumOutCounts[0];
+            counts[1] += sumOutCounts[1];
+            return counts;
+        }
+
+        cacheKey = null;
+        SymbolTable common = symbols;
+        Scope scope = new Scope(this);
         int multiplicationCount = 0;
+        for (Factor other : others) {
+            common = commonSymbols(common, scope.count, other);
+            scope.join(other);
+            multiplicationCount += scope.size();
+        }
+        int eliminatedIndex = scope.indexOf(variable);
+        if (eliminatedIndex == -1) {
+            throw new IllegalArgumentException("Variable not found in factor.");
+        }
+        int[] eliminated = scope.domains[eliminatedIndex];
+        scope.remove(eliminatedIndex);
+        int[] productVariables = scope.variables();
+        int[][] productOutcomes = scope.domains();
 
-        for (Map.Entry<List<String>, Double> entry1 : cpt.entrySet()) {
-            for (Map.Entry<List<String>, Double> entry2 : other.cpt.entrySet()) {
-                boolean match = true;
-                List<String> newKey = new ArrayList<>(Collections.nCopies(newVariables.size(), ""));
-                for (int i = 0; i < variables.size(); i++) {
-                    String value1 = entry1.getKey().get(i);
-                    newKey.set(newVariables.indexOf(variables.get(i)), value1);
-                }
-                for (int i = 0; i < other.variables.size(); i++) {
-                    String value2 = entry2.getKey().get(i);
-                    int index = newVariables.indexOf(other.variables.get(i));
-                    if (newKey.get(index).isEmpty()) {
-                        newKey.set(index, value2);
-                    } else if (!newKey.get(index).equals(value2)) {
-                        match = false;
-                        break;
+        Factor result = new Factor(common, productVariables, productOutcomes);
+        int cardinality = eliminated.length;
+        int additionCount = cardinality == 0 ? 0 : result.size * (cardinality - 1);
+
+        // offsets[k][j][d]: position in operand k when output variable j takes outcome d;
+        // eliminatedOffsets[k][d]: the same for the summed-out variable.
+        List<Factor> operands = new ArrayList<>(others.size() + 1);
+        operands.add(this);
+        operands.addAll(others);
+        int m = operands.size();
+        int n = productVariables.length;
+        double[][] sources = new double[m][];
+        int[][][] offsets = new int[m][n][];
+        int[][] eliminatedOffsets = new int[m][];
+        for (int k = 0; k < m; k++) {
+            Factor operand = operands.get(k);
+            sources[k] = operand.values;
+            for (int j = 0; j < n; j++) {
+                offsets[k][j] = operand.offsetsFor(productVariables[j], productOutcomes[j]);
+            }
+            eliminatedOffsets[k] = operand.offsetsFor(variable, eliminated);
+        }
+
+        double[] newValues = new double[result.size];
+        int[] steps = new int[m];
+        int start = blockStart(result.cardinalities, offsets, steps);
+        int block = start == 0 ? result.size : result.strides[start - 1];
+        if (block >= MIN_BLOCK) {
+            forRange(newValues.length, (from, to) -> {
+                int[] starts = new int[m];
+                forEachBlock(result.cardinalities, start, block, offsets, from, to, (bases, within, out, length) -> {
+                    for (int k = 0; k < m; k++) {
+                        starts[k] = bases[k] + within * steps[k];
                     }
+                    KERNELS.productSum(sources, starts, steps, eliminatedOffsets, newValues, out, length);
+                });
+            });
+        } else {
+            forRange(newValues.length, (from, to) ->
+                    fusedRange(sources, offsets, eliminatedOffsets, result.cardinalities, newValues, from, to));
+        }
+        init(common, productVariables, productOutcomes);
+        store(newValues);
+        return new int[]{additionCount, multiplicationCount};
+    }
+
+    private static void fusedRange(double[][] sources, int[][][] offsets, int[][] eliminatedOffsets, int[] cardinalities,
+                                   double[] target, int from, int to) {
+        int m = sources.length;
+        int n = cardinalities.length;
+        int cardinality = eliminatedOffsets[0].length;
+        int[] counter = new int[n];
+        int[] base = new int[m];
+        int rest = from;
+        for (int j = n - 1; j >= 0 && from < to; j--) {
+            counter[j] = rest % cardinalities[j];
+            rest /= cardinalities[j];
+            for (int k = 0; k < m; k++) {
+                base[k] += offsets[k][j][counter[j]];
+            }
+        }
+
+        for (int out = from; out < to; out++) {
+            double sum = 0;
+            for (int d = 0; d < cardinality; d++) {
+                double product = sources[0][base[0] + eliminatedOffsets[0][d]];
+                for (int k = 1; k < m; k++) {
+                    product *= sources[k][base[k] + eliminatedOffsets[k][d]];
                 }
-                if (match) {
-                    double newValue = entry1.getValue() * entry2.getValue();
-                    multiplicationCount++;
-                    newCpt.put(newKey, newValue);
+                sum += product;
+            }
+            target[out] = sum;
+
+            for (int j = n - 1; j >= 0; j--) {
+                int d = counter[j];
+                if (++counter[j] < cardinalities[j]) {
+                    for (int k = 0; k < m; k++) {
+                        base[k] += offsets[k][j][d + 1] - offsets[k][j][d];
+                    }
+                    break;
+                }
+                for (int k = 0; k < m; k++) {
+                    base[k] += offsets[k][j][0] - offsets[k][j][d];
                 }
+                counter[j] = 0;
             }
         }
+    }
 
-        this.variables = newVariables;
-        this.cpt = newCpt;
-        return new int[]{0, multiplicationCount};
+    private double[] multiplyDense(Factor other, Factor result) {
+        // offsets[j][d] is the position contributed to each operand when output variable j takes outcome d
+        int n = result.variables.length;
+        int[][] thisOffsets = new int[n][];
+        int[][] otherOffsets = new int[n][];
+        for (int j = 0; j < n; j++) {
+            thisOffsets[j] = offsetsFor(result.variables[j], result.domains[j]);
+            otherOffsets[j] = other.offsetsFor(result.variables[j], result.domains[j]);
+        }
+
+        double[] newValues = new double[result.size];
+        int[][][] offsets = {thisOffsets, otherOffsets};
+        int[] steps = new int[2];
+        int start = blockStart(result.cardinalities, offsets, steps);
+        int block = start == 0 ? result.size : result.strides[start - 1];
+        if (block >= MIN_BLOCK) {
+            forRange(newValues.length, (from, to) ->
+                    forEachBlock(result.cardinalities, start, block, offsets, from, to, (bases, within, out, length) ->
+                            KERNELS.product(values, bases[0] + within * steps[0], steps[0],
+                                    other.values, bases[1] + within * steps[1], steps[1], newValues, out, length)));
+        } else {
+            forRange(newValues.length, (from, to) ->
+                    multiplyRange(other.values, result.cardinalities, thisOffsets, otherOffsets, newValues, from, to));
+        }
+        return newValues;
     }
 
-    public int[] normalize() {
-        double sum = cpt.values().stream().mapToDouble(Double::doubleValue).sum();
-        int additionCount = cpt.size() - 1;
+    // The first of the trailing output variables over which every operand is either laid out like the output
+    // (steps[k] = 1) or does not move at all (steps[k] = 0), taking as many of them as possible. The entries
+    // they span form the blocks that forEachBlock walks.
+    private static int blockStart(int[] cardinalities, int[][][] offsets, int[] steps) {
+        int m = offsets.length;
+        Arrays.fill(steps, -1);
+        int stride = 1;
+        int start = cardinalities.length;
+        while (start > 0) {
+            int[] candidate = Arrays.copyOf(steps, m);
+            boolean fits = true;
+            for (int k = 0; k < m && fits; k++) {
+                int[] own = offsets[k][start - 1];
+                if (own.length < 2) {
+                    continue;
+                }
+                boolean contiguous = true;
+                boolean constant = true;
+                for (int d = 0; d < own.length; d++) {
+                    contiguous &= own[d] == d * stride;
+                    constant &= own[d] == 0;
+                }
+                if (contiguous && candidate[k] != 0) {
+                    candidate[k] = 1;
+                } else if (constant && candidate[k] != 1) {
+                    candidate[k] = 0;
+                } else {
+                    fits = false;
+                }
+            }
+            if (!fits) {
+                break;
+            }
+            System.arraycopy(candidate, 0, steps, 0, m);
+            stride *= cardinalities[start - 1];
+            start--;
+        }
+        for (int k = 0; k < m; k++) {
+            steps[k] = Math.max(steps[k], 0);
+        }
+        return start;
+    }
 
-        Map<List<String>, Double> newCpt = new HashMap<>();
-        for (Map.Entry<List<String>, Double> entry : cpt.entrySet()) {
-            newCpt.put(entry.getKey(), entry.getValue() / sum);
+    private interface BlockKernel {
+        void run(int[] bases, int within, int out, int length);
+    }
+
+    // Hands kernel the part of each block that lies in [from, to), where a block is the run of entries over the
+    // variables from start on and the variables before it are walked like multiplyRange walks entries. bases[k]
+    // is where the block starts in operand k, and within is how far into the block the part starts.
+    private static void forEachBlock(int[] cardinalities, int start, int block, int[][][] offsets, int from, int to,
+                                     BlockKernel kernel) {
+        int m = offsets.length;
+        int[] counter = new int[start];
+        int[] bases = new int[m];
+        int rest = from / block;
+        for (int j = start - 1; j >= 0 && from < to; j--) {
+            counter[j] = rest % cardinalities[j];
+            rest /= cardinalities[j];
+            for (int k = 0; k < m; k++) {
+                bases[k] += offsets[k][j][counter[j]];
+            }
+        }
+
+        int within = from % block;
+        for (int out = from; out < to; ) {
+            int length = Math.min(block - within, to - out);
+            kernel.run(bases, within, out, length);
+            out += length;
+            within = 0;
+
+            for (int j = start - 1; j >= 0; j--) {
+                int d = counter[j];
+                if (++counter[j] < cardinalities[j]) {
+                    for (int k = 0; k < m; k++) {
+                        bases[k] += offsets[k][j][d + 1] - offsets[k][j][d];
+                    }
+                    break;
+                }
+                for (int k = 0; k < m; k++) {
+                    bases[k] += offsets[k][j][0] - offsets[k][j][d];
+                }
+                counter[j] = 0;
+            }
+        }
+    }
+
+    private void multiplyRange(double[] otherValues, int[] cardinalities, int[][] thisOffsets, int[][] otherOffsets,
+                               double[] target, int from, int to) {
+        int n = cardinalities.length;
+        int[] counter = new int[n];
+        int thisOffset = 0;
+        int otherOffset = 0;
+        int rest = from;
+        for (int j = n - 1; j >= 0 && from < to; j--) {
+            counter[j] = rest % cardinalities[j];
+            rest /= cardinalities[j];
+            thisOffset += thisOffsets[j][counter[j]];
+            otherOffset += otherOffsets[j][counter[j]];
         }
 
-        this.cpt = newCpt;
+        for (int out = from; out < to; out++) {
+            target[out] = values[thisOffset] * otherValues[otherOffset];
+            for (int j = n - 1; j >= 0; j--) {
+                int d = counter[j];
+                if (++counter[j] < cardinalities[j]) {
+                    thisOffset += thisOffsets[j][d + 1] - thisOffsets[j][d];
+                    otherOffset += otherOffsets[j][d + 1] - otherOffsets[j][d];
+                    break;
+                }
+                thisOffset += thisOffsets[j][0] - thisOffsets[j][d];
+                otherOffset += otherOffsets[j][0] - otherOffsets[j][d];
+                counter[j] = 0;
+            }
+        }
+    }
+
+    // The kernels the dense loops use, "vector" or "scalar".
+    public static String getKernels() {
+        return KERNELS.name();
+    }
+
+    public static int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    public static void setParallelThreshold(int threshold) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("The parallel threshold must be positive.");
+        }
+        parallelThreshold = threshold;
+    }
+
+    private interface RangeKernel {
+        void run(int from, int to);
+    }
+
+    // Runs kernel over [0, size), in fork-join tasks over disjoint subranges when size reaches the threshold.
+    private static void forRange(int size, RangeKernel kernel) {
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        if (size < parallelThreshold || parallelism < 2) {
+            kernel.run(0, size);
+            return;
+        }
+        int grain = Math.max(Math.min(MIN_TASK_SIZE, parallelThreshold), size / (parallelism * 4));
+        ForkJoinPool.commonPool().invoke(new RangeTask(kernel, 0, size, grain));
+    }
+
+    private static class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final RangeKernel kernel;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        RangeTask(RangeKernel kernel, int from, int to, int grain) {
+            this.kernel = kernel;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                kernel.run(from, to);
+                return;
+            }
+            int middle = from + (to - from) / 2;
+            invokeAll(new RangeTask(kernel, from, middle, grain), new RangeTask(kernel, middle, to, grain));
+        }
+    }
+
+    // Walks the non-zeros of the sparser operand (the driver) and, for each, the outputs that extend it
+    // over the variables it lacks, probing the other operand. Leaves the non-zero products in result.
+    private void multiplySparse(Factor other, Factor result) {
+        boolean thisDrives = values == null && (other.values != null || nonZeroIndex.length <= other.nonZeroIndex.length);
+        Factor driver = thisDrives ? this : other;
+        Factor probe = thisDrives ? other : this;
+
+        int n = result.variables.length;
+        int[][] probeOffsets = new int[n][];
+        for (int j = 0; j < n; j++) {
+            probeOffsets[j] = probe.offsetsFor(result.variables[j], result.domains[j]);
+        }
+        int driven = driver.variables.length;
+        int[] driverPosition = new int[driven];
+        int[][] driverOutcome = new int[driven][];
+        boolean[] bound = new boolean[n];
+        for (int i = 0; i < driven; i++) {
+            driverPosition[i] = result.indexOf(driver.variables[i]);
+            bound[driverPosition[i]] = true;
+            int[] target = result.domains[driverPosition[i]];
+            int[] own = driver.domains[i];
+            driverOutcome[i] = new int[own.length];
+            for (int d = 0; d < own.length; d++) {
+                driverOutcome[i][d] = positionOf(target, own[d]);
+            }
+        }
+        int[] free = new int[n - driven];
+        int freeSize = 1;
+        for (int j = 0, f = 0; j < n; j++) {
+            if (!bound[j]) {
+                free[f++] = j;
+                freeSize *= result.cardinalities[j];
+            }
+        }
+
+        int capacity = Math.max(16, driver.nonZeroIndex.length);
+        int[] index = new int[capacity];
+        double[] nonZeros = new double[capacity];
+        int count = 0;
+        boolean ordered = true;
+        int[] counter = new int[free.length];
+        for (int k = 0; k < driver.nonZeroIndex.length && freeSize > 0; k++) {
+            int position = driver.nonZeroIndex[k];
+            int out = 0;
+            int probeOffset = 0;
+            boolean consistent = true;
+            for (int i = 0; i < driven; i++) {
+                int outcome = driverOutcome[i][position / driver.strides[i] % driver.cardinalities[i]];
+                if (outcome < 0) {
+                    consistent = false;
+                    break;
+                }
+                out += outcome * result.strides[driverPosition[i]];
+                probeOffset += probeOffsets[driverPosition[i]][outcome];
+            }
+            if (!consistent) {
+                continue;
+            }
+            for (int j : free) {
+                probeOffset += probeOffsets[j][0];
+            }
+
+            double driverValue = driver.nonZeroValues[k];
+            for (int step = 0; step < freeSize; step++) {
+                double product = driverValue * probe.valueAt(probeOffset);
+                if (product != 0) {
+                    if (count == index.length) {
+                        index = Arrays.copyOf(index, count * 2);
+                        nonZeros = Arrays.copyOf(nonZeros, count * 2);
+                    }
+                    ordered &= count == 0 || index[count - 1] < out;
+                    index[count] = out;
+                    nonZeros[count++] = product;
+                }
+                for (int f = free.length - 1; f >= 0; f--) {
+                    int j = free[f];
+                    int d = counter[f];
+                    if (++counter[f] < result.cardinalities[j]) {
+                        out += result.strides[j];
+                        probeOffset += probeOffsets[j][d + 1] - probeOffsets[j][d];
+                        break;
+                    }
+                    out -= d * result.strides[j];
+                    probeOffset += probeOffsets[j][0] - probeOffsets[j][d];
+                    counter[f] = 0;
+                }
+            }
+        }
+
+        if (!ordered) {
+            long[] keys = new long[count];
+            for (int k = 0; k < count; k++) {
+                keys[k] = (long) index[k] << 32 | k;
+            }
+            Arrays.sort(keys);
+            int[] sortedIndex = new int[count];
+            double[] sortedValues = new double[count];
+            for (int k = 0; k < count; k++) {
+                sortedIndex[k] = (int) (keys[k] >>> 32);
+                sortedValues[k] = nonZeros[(int) keys[k]];
+            }
+            index = sortedIndex;
+            nonZeros = sortedValues;
+        }
+        result.nonZeroIndex = Arrays.copyOf(index, count);
+        result.nonZeroValues = Arrays.copyOf(nonZeros, count);
+    }
+
+    private int[] offsetsFor(int variable, int[] targetOutcomes) {
+        int[] offsets = new int[targetOutcomes.length];
+        int index = indexOf(variable);
+        if (index < 0) {
+            return offsets;
+        }
+        int[] own = domains[index];
+        boolean identical = Arrays.equals(own, targetOutcomes);
+        for (int d = 0; d < offsets.length; d++) {
+            offsets[d] = (identical ? d : positionOf(own, targetOutcomes[d])) * strides[index];
+        }
+        return offsets;
+    }
+
+    public int[] normalize() {
+        cacheKey = null;
+        inflate();
+        double[] stored = values != null ? values : nonZeroValues;
+        double sum = KERNELS.sum(stored);
+        int additionCount = size - 1;
+
+        if (sum == 0 && values == null) {
+            // Every entry becomes 0/0, as it would in the dense form.
+            values = getValues();
+            nonZeroIndex = null;
+            nonZeroValues = null;
+            stored = values;
+        }
+        KERNELS.divide(stored, sum);
         return new int[]{additionCount, 0};
     }
 
+    // Names of the variables, in index order.
     public List<String> getVariables() {
-        return variables;
+        List<String> names = new ArrayList<>(variables.length);
+        for (int variable : variables) {
+            names.add(symbols.name(variable));
+        }
+        return names;
+    }
+
+    public List<List<String>> getOutcomes() {
+        List<List<String>> outcomes = new ArrayList<>(variables.length);
+        for (int i = 0; i < variables.length; i++) {
+            List<String> names = new ArrayList<>(domains[i].length);
+            for (int outcome : domains[i]) {
+                names.add(symbols.outcomeName(variables[i], outcome));
+            }
+            outcomes.add(names);
+        }
+        return outcomes;
+    }
+
+    public int getVariableCount() {
+        return variables.length;
+    }
+
+    int[] getVariableIds() {
+        return variables.clone();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Dense copy of the entries when the factor is sparse.
+    double[] getValues() {
+        inflate();
+        if (values != null) {
+            return values;
+        }
+        double[] dense = new double[size];
+        for (int k = 0; k < nonZeroIndex.length; k++) {
+            dense[nonZeroIndex[k]] = nonZeroValues[k];
+        }
+        return dense;
+    }
+
+    // Looks up an entry by a key in the same "Var=value" form used by getCpt(); null when the key does not match.
+    public Double getValue(List<String> key) {
+        if (key.size() != variables.length) {
+            return null;
+        }
+        int[] outcomes = new int[variables.length];
+        for (int i = 0; i < variables.length; i++) {
+            String variable = symbols.name(variables[i]);
+            String assignment = key.get(i);
+            if (!assignment.startsWith(variable + "=")) {
+                return null;
+            }
+            outcomes[i] = symbols.outcomeId(variables[i], outcomeOf(variable, assignment));
+        }
+        return getValue(outcomes);
+    }
+
+    // The entry where the i-th variable takes outcome id outcomes[i]; null when one lies outside its domain.
+    Double getValue(int[] outcomes) {
+        int index = 0;
+        for (int i = 0; i < variables.length; i++) {
+            int position = positionOf(domains[i], outcomes[i]);
+            if (position < 0) {
+                return null;
+            }
+            index += position * strides[i];
+        }
+        return valueAt(index);
     }
 
     public Map<List<String>, Double> getCpt() {
+        Map<List<String>, Double> cpt = new HashMap<>();
+        List<String> names = getVariables();
+        List<List<String>> outcomes = getOutcomes();
+        int[] counter = new int[variables.length];
+        for (int index = 0; index < size; index++) {
+            List<String> key = new ArrayList<>(variables.length);
+            for (int i = 0; i < variables.length; i++) {
+                key.add(names.get(i) + "=" + outcomes.get(i).get(counter[i]));
+            }
+            cpt.put(key, valueAt(index));
+            for (int j = counter.length - 1; j >= 0; j--) {
+                if (++counter[j] < cardinalities[j]) {
+                    break;
+                }
+                counter[j] = 0;
+            }
+        }
         return cpt;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,161 @@
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Factors produced by VariableElimination elimination steps, shared between queries on one network. A step
+// is identified by the ordered keys of the factors it multiplies and the variable it sums out; a CPT
+// factor's key is its node and the evidence outcomes fixed in its scope, and a computed factor's key
+// stands for the step that produced it. Identical keys therefore mean identical work, and a hit returns
+// the same values and operation counts the step would have produced.
+//
+// Entries are evicted least recently used first once their estimated size exceeds maxBytes.
+public class FactorCache {
+    // Rough per-entry cost of the map node, the key and the Factor's own fields.
+    private static final int ENTRY_OVERHEAD = 160;
+
+    private final BayesianNetwork network;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Step keys grow with the depth of the elimination, so a factor's key is a short id for its step key,
+    // held by the step's entry and evicted with it. Ids are never reused.
+    private final AtomicLong nextId = new AtomicLong();
+    private long bytes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public FactorCache(BayesianNetwork network, long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("The cache needs a positive size.");
+        }
+        this.network = network;
+        this.maxBytes = maxBytes;
+    }
+
+    BayesianNetwork getNetwork() {
+        return network;
+    }
+
+    // Variables are written as node ids, which are fixed for the cache's network.
+    static String leafKey(Node node, int[] observed) {
+        StringBuilder key = new StringBuilder().append(node.getId());
+        for (int outcome : observed) {
+            key.append(outcome == Factor.UNOBSERVED ? ",*" : "," + outcome);
+        }
+        return key.toString();
+    }
+
+    // The key of multiplying factors in the given order and summing out variable, or null if one of them
+    // has no key.
+    String stepKey(List<Factor> factors, int variable) {
+        StringBuilder key = new StringBuilder();
+        for (Factor factor : factors) {
+            if (factor.getCacheKey() == null) {
+                return null;
+            }
+            key.append(factor.getCacheKey()).append('*');
+        }
+        return key.append('/').append(variable).toString();
+    }
+
+    // The key to give the factor a step produced: the id of the step's entry, or a fresh id that no entry
+    // holds when the step is not cached, so later steps built on it simply miss.
+    String resultKey(String stepKey) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(stepKey);
+        }
+        return entry != null ? entry.id : newId();
+    }
+
+    private String newId() {
+        return "#" + nextId.getAndIncrement();
+    }
+
+    // A private copy of the cached result and its {additions, multiplications}, or null on a miss.
+    Factor get(String stepKey, int[] counts) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(stepKey);
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        counts[0] = entry.additions;
+        counts[1] = entry.multiplications;
+        return entry.factor.copy();
+    }
+
+    // Stores a copy of a step's result; the caller keeps using its own factor.
+    void put(String stepKey, Factor result, int[] counts) {
+        String id = newId();
+        Entry entry = new Entry(result.copy(), id, counts[0], counts[1], weigh(stepKey, id, result));
+        if (entry.bytes > maxBytes) {
+            return;
+        }
+        synchronized (this) {
+            Entry previous = entries.put(stepKey, entry);
+            bytes += entry.bytes - (previous != null ? previous.bytes : 0);
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                bytes -= eldest.next().bytes;
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    private static long weigh(String stepKey, String id, Factor factor) {
+        long values = (long) factor.storedEntries() * (factor.isSparse() ? Double.BYTES + Integer.BYTES : Double.BYTES);
+        return values + 2L * (stepKey.length() + id.length()) + ENTRY_OVERHEAD;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hits=%d misses=%d evictions=%d entries=%d bytes=%d/%d", getHits(), getMisses(),
+                getEvictions(), getEntryCount(), getBytes(), maxBytes);
+    }
+
+    private static class Entry {
+        private final Factor factor;
+        private final String id;
+        private final int additions;
+        private final int multiplications;
+        private final long bytes;
+
+        Entry(Factor factor, String id, int additions, int multiplications, long bytes) {
+            this.factor = factor;
+            this.id = id;
+            this.additions = additions;
+            this.multiplications = multiplications;
+            this.bytes = bytes;
+        }
+    }
+}
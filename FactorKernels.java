@@ -0,0 +1,42 @@
+// Inner loops of the dense Factor operations, over runs where every operand is either contiguous (step 1) or
+// constant (step 0). Factor walks the outer variables and hands each run to the kernels chosen at startup:
+// VectorKernels, built on jdk.incubator.vector, when that module is present and the simd/ sources were
+// compiled in, otherwise ScalarKernels. -Dfactor.kernels=scalar forces the scalar ones.
+//
+// Both compute every output entry with the same operations in the same order, so products and sums-out are
+// bit-identical whichever is used. Only sum, the total that normalize divides by, adds in lanes and may differ
+// from the scalar sum in the last bits.
+interface FactorKernels {
+    // out[outFrom + t] = a[aStart + t * aStep] * b[bStart + t * bStep] for t < length.
+    void product(double[] a, int aStart, int aStep, double[] b, int bStart, int bStep, double[] out, int outFrom, int length);
+
+    // out[outFrom + t] = sum over d of the product over k of sources[k][starts[k] + t * steps[k] + eliminated[k][d]],
+    // multiplying in operand order and adding in outcome order.
+    void productSum(double[][] sources, int[] starts, int[] steps, int[][] eliminated, double[] out, int outFrom, int length);
+
+    // out[outFrom + t] = sum over d < cardinality of source[from + d * inner + t]: summing out a variable that
+    // has inner entries below it.
+    void sumBlocks(double[] source, int from, int inner, int cardinality, double[] out, int outFrom, int length);
+
+    // out[outFrom + t] = sum over d < cardinality of source[from + t * cardinality + d]: summing out the
+    // innermost variable.
+    void sumRows(double[] source, int from, int cardinality, double[] out, int outFrom, int length);
+
+    double sum(double[] values);
+
+    void divide(double[] values, double divisor);
+
+    String name();
+
+    static FactorKernels load() {
+        if (!"scalar".equals(System.getProperty("factor.kernels"))
+                && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (FactorKernels) Class.forName("VectorKernels").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // Built without the simd/ sources.
+            }
+        }
+        return new ScalarKernels();
+    }
+}
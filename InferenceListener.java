@@ -0,0 +1,98 @@
+import java.util.*;
+
+// Receives telemetry from BayesBall, VariableElimination and SamplingInference. Every method has an empty default, so a listener
+// only overrides the events it needs. Engines check for NONE before measuring anything, so an engine
+// without a listener does no extra work.
+//
+// Events of one query are all delivered on the thread that runs it, but a listener shared by a
+// BatchQueryExecutor receives events of several queries concurrently and must be thread-safe.
+public interface InferenceListener {
+    InferenceListener NONE = new InferenceListener() {
+    };
+
+    String BAYES_BALL = "BayesBall";
+    String VARIABLE_ELIMINATION = "VariableElimination";
+    String SAMPLING = "Sampling";
+
+    default void queryStarted(String engine, String query) {
+    }
+
+    // The relevant variables left after BayesBall and ancestor pruning, out of networkSize.
+    default void pruned(String query, Set<String> relevantVariables, int networkSize) {
+    }
+
+    // The elimination order EliminationOrdering chose for a query, with its induced width.
+    default void planned(String query, EliminationOrdering.Plan plan) {
+    }
+
+    // One variable eliminated: the sizes of the factors multiplied, the size of the factor left after summing
+    // out, and the time taken.
+    default void eliminationStep(String variable, int[] inputSizes, int outputSize, long nanos) {
+    }
+
+    // Totals of one elimination run, reported before the query finishes.
+    default void operationCounts(int additions, int multiplications) {
+    }
+
+    default void queryFinished(String engine, String query, String answer, long nanos) {
+    }
+
+    // Delivers every event to each listener in turn.
+    static InferenceListener of(InferenceListener... listeners) {
+        List<InferenceListener> active = new ArrayList<>();
+        for (InferenceListener listener : listeners) {
+            if (listener != NONE) {
+                active.add(listener);
+            }
+        }
+        if (active.isEmpty()) {
+            return NONE;
+        }
+        if (active.size() == 1) {
+            return active.get(0);
+        }
+        return new InferenceListener() {
+            @Override
+            public void queryStarted(String engine, String query) {
+                for (InferenceListener listener : active) {
+                    listener.queryStarted(engine, query);
+                }
+            }
+
+            @Override
+            public void pruned(String query, Set<String> relevantVariables, int networkSize) {
+                for (InferenceListener listener : active) {
+                    listener.pruned(query, relevantVariables, networkSize);
+                }
+            }
+
+            @Override
+            public void planned(String query, EliminationOrdering.Plan plan) {
+                for (InferenceListener listener : active) {
+                    listener.planned(query, plan);
+                }
+            }
+
+            @Override
+            public void eliminationStep(String variable, int[] inputSizes, int outputSize, long nanos) {
+                for (InferenceListener listener : active) {
+                    listener.eliminationStep(variable, inputSizes, outputSize, nanos);
+                }
+            }
+
+            @Override
+            public void operationCounts(int additions, int multiplications) {
+                for (InferenceListener listener : active) {
+                    listener.operationCounts(additions, multiplications);
+                }
+            }
+
+            @Override
+            public void queryFinished(String engine, String query, String answer, long nanos) {
+                for (InferenceListener listener : active) {
+                    listener.queryFinished(engine, query, answer, nanos);
+                }
+            }
+        };
+    }
+}
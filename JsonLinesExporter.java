@@ -0,0 +1,131 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// Writes every listener event as one JSON object per line to a local file. Lines from concurrent queries
+// never interleave; the thread field tells which events belong to the same query.
+public class JsonLinesExporter implements InferenceListener, AutoCloseable {
+    private final Writer out;
+
+    public JsonLinesExporter(String fileName) throws IOException {
+        this.out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fileName), StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void queryStarted(String engine, String query) {
+        write(event("query_start").field("engine", engine).field("query", query));
+    }
+
+    @Override
+    public void pruned(String query, Set<String> relevantVariables, int networkSize) {
+        List<String> sorted = new ArrayList<>(relevantVariables);
+        Collections.sort(sorted);
+        write(event("pruned").field("query", query).field("relevant", sorted).field("networkSize", networkSize));
+    }
+
+    @Override
+    public void eliminationStep(String variable, int[] inputSizes, int outputSize, long nanos) {
+        write(event("elimination_step").field("variable", variable).field("inputSizes", inputSizes)
+                .field("outputSize", outputSize).field("nanos", nanos));
+    }
+
+    @Override
+    public void operationCounts(int additions, int multiplications) {
+        write(event("operation_counts").field("additions", additions).field("multiplications", multiplications));
+    }
+
+    @Override
+    public void queryFinished(String engine, String query, String answer, long nanos) {
+        write(event("query_end").field("engine", engine).field("query", query).field("answer", answer)
+                .field("nanos", nanos));
+    }
+
+    private static Line event(String type) {
+        return new Line().field("event", type).field("thread", Thread.currentThread().getName())
+                .field("time", System.currentTimeMillis());
+    }
+
+    private synchronized void write(Line line) {
+        try {
+            out.write(line.close());
+            out.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    private static class Line {
+        private final StringBuilder json = new StringBuilder("{");
+
+        Line field(String name, String value) {
+            key(name);
+            string(value);
+            return this;
+        }
+
+        Line field(String name, long value) {
+            key(name);
+            json.append(value);
+            return this;
+        }
+
+        Line field(String name, int[] values) {
+            key(name);
+            json.append('[');
+            for (int i = 0; i < values.length; i++) {
+                json.append(i > 0 ? "," : "").append(values[i]);
+            }
+            json.append(']');
+            return this;
+        }
+
+        Line field(String name, List<String> values) {
+            key(name);
+            json.append('[');
+            for (int i = 0; i < values.size(); i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                string(values.get(i));
+            }
+            json.append(']');
+            return this;
+        }
+
+        String close() {
+            return json.append('}').toString();
+        }
+
+        private void key(String name) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            string(name);
+            json.append(':');
+        }
+
+        private void string(String value) {
+            if (value == null) {
+                json.append("null");
+                return;
+            }
+            json.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    json.append('\\').append(c);
+                } else if (c < 0x20) {
+                    json.append(String.format("\\u%04x", (int) c));
+                } else {
+                    json.append(c);
+                }
+            }
+            json.append('"');
+        }
+    }
+}
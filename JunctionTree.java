@@ -0,0 +1,276 @@
+import java.util.*;
+
+// Clique-tree compilation of a BayesianNetwork with Shafer-Shenoy message passing. After one calibration
+// (a collect and a distribute pass) P(X | e) is available for every variable X.
+public class JunctionTree {
+    private final BayesianNetwork network;
+    private final List<List<String>> cliques;
+    private final List<List<Integer>> neighbours;
+    // For each clique, the nodes whose CPTs are multiplied into its potential.
+    private final List<List<Node>> assignments;
+    private final Map<String, Integer> homeClique;
+
+    private Factor[] potentials;
+    private Map<Long, Factor> messages;
+    private Map<String, String> evidence;
+
+    public JunctionTree(BayesianNetwork network) {
+        this.network = network;
+        this.cliques = new ArrayList<>();
+        this.neighbours = new ArrayList<>();
+        this.assignments = new ArrayList<>();
+        this.homeClique = new HashMap<>();
+        compile();
+    }
+
+    private void compile() {
+        // Moralize: each family (a node with its parents) becomes a clique of the undirected graph.
+        List<List<String>> families = new ArrayList<>();
+        Map<String, Integer> cardinalities = new HashMap<>();
+        Map<String, Set<String>> moralGraph = new HashMap<>();
+        for (Node node : network.getNodes().values()) {
+            List<String> family = new ArrayList<>(node.getParentsNames());
+            family.add(node.getName());
+            families.add(family);
+            cardinalities.put(node.getName(), node.getCardinality());
+            moralGraph.putIfAbsent(node.getName(), new HashSet<>());
+            for (String a : family) {
+                for (String b : family) {
+                    if (!a.equals(b)) {
+                        moralGraph.computeIfAbsent(a, k -> new HashSet<>()).add(b);
+                    }
+                }
+            }
+        }
+
+        // Triangulate by replaying an elimination order; every maximal eliminated clique becomes a tree node.
+        EliminationOrdering.Plan plan = new EliminationOrdering().plan(families, cardinalities, moralGraph.keySet());
+        List<Set<String>> cliqueSets = new ArrayList<>();
+        for (String var : plan.getOrder()) {
+            Set<String> adjacent = moralGraph.get(var);
+            Set<String> clique = new HashSet<>(adjacent);
+            clique.add(var);
+            boolean maximal = true;
+            for (Set<String> existing : cliqueSets) {
+                if (existing.containsAll(clique)) {
+                    maximal = false;
+                    break;
+                }
+            }
+            if (maximal) {
+                cliqueSets.add(clique);
+            }
+            for (String u : adjacent) {
+                Set<String> uAdjacent = moralGraph.get(u);
+                uAdjacent.remove(var);
+                for (String w : adjacent) {
+                    if (!w.equals(u)) {
+                        uAdjacent.add(w);
+                    }
+                }
+            }
+            adjacent.clear();
+        }
+
+        for (Set<String> clique : cliqueSets) {
+            List<String> members = new ArrayList<>(clique);
+            Collections.sort(members);
+            cliques.add(members);
+            neighbours.add(new ArrayList<>());
+            assignments.add(new ArrayList<>());
+        }
+        connectCliques();
+
+        for (Node node : network.getNodes().values()) {
+            List<String> family = new ArrayList<>(node.getParentsNames());
+            family.add(node.getName());
+            int best = -1;
+            for (int c = 0; c < cliques.size(); c++) {
+                if (cliques.get(c).containsAll(family) && (best < 0 || cliques.get(c).size() < cliques.get(best).size())) {
+                    best = c;
+                }
+            }
+            assignments.get(best).add(node);
+        }
+        for (int c = 0; c < cliques.size(); c++) {
+            for (String var : cliques.get(c)) {
+                Integer current = homeClique.get(var);
+                if (current == null || cliques.get(c).size() < cliques.get(current).size()) {
+                    homeClique.put(var, c);
+                }
+            }
+        }
+    }
+
+    // Maximum-weight spanning tree over separator sizes (Kruskal), which gives the running intersection property.
+    private void connectCliques() {
+        int n = cliques.size();
+        List<int[]> edges = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                int weight = separator(i, j).size();
+                if (weight > 0) {
+                    edges.add(new int[]{i, j, weight});
+                }
+            }
+        }
+        edges.sort((a, b) -> b[2] - a[2]);
+
+        int[] component = new int[n];
+        for (int i = 0; i < n; i++) {
+            component[i] = i;
+        }
+        for (int[] edge : edges) {
+            int a = find(component, edge[0]);
+            int b = find(component, edge[1]);
+            if (a != b) {
+                component[a] = b;
+                neighbours.get(edge[0]).add(edge[1]);
+                neighbours.get(edge[1]).add(edge[0]);
+            }
+        }
+    }
+
+    private static int find(int[] component, int i) {
+        while (component[i] != i) {
+            component[i] = component[component[i]];
+            i = component[i];
+        }
+        return i;
+    }
+
+    private List<String> separator(int i, int j) {
+        List<String> shared = new ArrayList<>(cliques.get(i));
+        shared.retainAll(cliques.get(j));
+        return shared;
+    }
+
+    // Enters the evidence and runs the collect and distribute passes over every tree of the forest.
+    public void calibrate(Map<String, String> evidence) {
+        this.evidence = new HashMap<>(evidence);
+        int n = cliques.size();
+        potentials = new Factor[n];
+        messages = new HashMap<>();
+        for (int c = 0; c < n; c++) {
+            Factor potential = unit();
+            for (Node node : assignments.get(c)) {
+                Map<String, String> nodeEvidence = new HashMap<>();
+                for (Node member : familyOf(node)) {
+                    if (evidence.containsKey(member.getName())) {
+                        nodeEvidence.put(member.getName(), evidence.get(member.getName()));
+                    }
+                }
+                potential.multiply(new Factor(node, nodeEvidence));
+            }
+            potentials[c] = potential;
+        }
+
+        boolean[] visited = new boolean[n];
+        for (int root = 0; root < n; root++) {
+            if (visited[root]) {
+                continue;
+            }
+            // Breadth-first order from the root: collect runs it backwards, distribute forwards.
+            List<Integer> order = new ArrayList<>();
+            int[] parent = new int[n];
+            order.add(root);
+            parent[root] = -1;
+            visited[root] = true;
+            for (int k = 0; k < order.size(); k++) {
+                int c = order.get(k);
+                for (int next : neighbours.get(c)) {
+                    if (!visited[next]) {
+                        visited[next] = true;
+                        parent[next] = c;
+                        order.add(next);
+                    }
+                }
+            }
+            for (int k = order.size() - 1; k > 0; k--) {
+                int c = order.get(k);
+                sendMessage(c, parent[c]);
+            }
+            for (int c : order) {
+                for (int next : neighbours.get(c)) {
+                    if (next != parent[c]) {
+                        sendMessage(c, next);
+                    }
+                }
+            }
+        }
+    }
+
+    private void sendMessage(int from, int to) {
+        Factor message = potentials[from].copy();
+        for (int other : neighbours.get(from)) {
+            if (other != to) {
+                message.multiply(messages.get(key(other, from)));
+            }
+        }
+        List<String> shared = separator(from, to);
+        for (String var : new ArrayList<>(message.getVariables())) {
+            if (!shared.contains(var)) {
+                message.sumOut(var);
+            }
+        }
+        messages.put(key(from, to), message);
+    }
+
+    private long key(int from, int to) {
+        return (long) from * cliques.size() + to;
+    }
+
+    // P(variable | e) over the variable's outcomes, from the belief of the smallest clique containing it.
+    public Map<String, Double> marginal(String variable) {
+        if (potentials == null) {
+            throw new IllegalStateException("calibrate must be called before reading marginals.");
+        }
+        Integer c = homeClique.get(variable);
+        if (c == null) {
+            throw new IllegalArgumentException("Variable not in network: " + variable);
+        }
+        Factor belief = potentials[c].copy();
+        for (int other : neighbours.get(c)) {
+            belief.multiply(messages.get(key(other, c)));
+        }
+        for (String var : new ArrayList<>(belief.getVariables())) {
+            if (!var.equals(variable)) {
+                belief.sumOut(var);
+            }
+        }
+        belief.normalize();
+
+        Map<String, Double> distribution = new LinkedHashMap<>();
+        for (String outcome : network.getNodeByName(variable).getOutcomes()) {
+            Double value = belief.getValue(Collections.singletonList(variable + "=" + outcome));
+            distribution.put(outcome, value == null ? 0.0 : value);
+        }
+        return distribution;
+    }
+
+    public double probability(String variable, String value) {
+        Double probability = marginal(variable).get(value);
+        if (probability == null) {
+            throw new IllegalArgumentException(variable + " has no outcome " + value);
+        }
+        return probability;
+    }
+
+    public Map<String, String> getEvidence() {
+        return evidence == null ? Collections.emptyMap() : Collections.unmodifiableMap(evidence);
+    }
+
+    public List<List<String>> getCliques() {
+        return Collections.unmodifiableList(cliques);
+    }
+
+    private static Factor unit() {
+        return new Factor(new ArrayList<>(), new ArrayList<>(), new double[]{1.0});
+    }
+
+    private static List<Node> familyOf(Node node) {
+        List<Node> family = new ArrayList<>(node.getParents());
+        family.add(node);
+        return family;
+    }
+}
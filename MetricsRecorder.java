@@ -0,0 +1,154 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Aggregates listener events in memory: query latencies per engine, elimination step times, the largest
+// factor of each elimination query, pruning ratios and operation totals. Safe to share between threads.
+public class MetricsRecorder implements InferenceListener {
+    private final Map<String, Histogram> latencies = new ConcurrentHashMap<>();
+    private final Histogram stepTimes = new Histogram();
+    private final Histogram largestFactors = new Histogram();
+    private final LongAdder additions = new LongAdder();
+    private final LongAdder multiplications = new LongAdder();
+    private final LongAdder relevantVariables = new LongAdder();
+    private final LongAdder networkVariables = new LongAdder();
+    // Largest factor seen so far by the query running on this thread.
+    private final ThreadLocal<long[]> largest = ThreadLocal.withInitial(() -> new long[1]);
+
+    @Override
+    public void queryStarted(String engine, String query) {
+        largest.get()[0] = 0;
+    }
+
+    @Override
+    public void pruned(String query, Set<String> relevant, int networkSize) {
+        relevantVariables.add(relevant.size());
+        networkVariables.add(networkSize);
+    }
+
+    @Override
+    public void eliminationStep(String variable, int[] inputSizes, int outputSize, long nanos) {
+        stepTimes.record(nanos);
+        long[] current = largest.get();
+        for (int size : inputSizes) {
+            current[0] = Math.max(current[0], size);
+        }
+        current[0] = Math.max(current[0], outputSize);
+    }
+
+    @Override
+    public void operationCounts(int additionCount, int multiplicationCount) {
+        additions.add(additionCount);
+        multiplications.add(multiplicationCount);
+    }
+
+    @Override
+    public void queryFinished(String engine, String query, String answer, long nanos) {
+        latencies.computeIfAbsent(engine, e -> new Histogram()).record(nanos);
+        if (VARIABLE_ELIMINATION.equals(engine)) {
+            largestFactors.record(largest.get()[0]);
+        }
+    }
+
+    // Query latencies in nanoseconds, or an empty histogram if the engine answered nothing.
+    public Histogram getLatencies(String engine) {
+        Histogram histogram = latencies.get(engine);
+        return histogram != null ? histogram : new Histogram();
+    }
+
+    public Histogram getStepTimes() {
+        return stepTimes;
+    }
+
+    // Entries in the largest factor of each VariableElimination query.
+    public Histogram getLargestFactors() {
+        return largestFactors;
+    }
+
+    public long getAdditions() {
+        return additions.sum();
+    }
+
+    public long getMultiplications() {
+        return multiplications.sum();
+    }
+
+    // Average share of the network kept after pruning, or 0 before any query.
+    public double getRelevantFraction() {
+        long total = networkVariables.sum();
+        return total == 0 ? 0 : (double) relevantVariables.sum() / total;
+    }
+
+    public String summary() {
+        StringBuilder summary = new StringBuilder();
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(latencies).entrySet()) {
+            summary.append(entry.getKey()).append(" latency (ns): ").append(entry.getValue()).append('\n');
+        }
+        summary.append("Elimination step time (ns): ").append(stepTimes).append('\n');
+        summary.append("Largest factor (entries): ").append(largestFactors).append('\n');
+        summary.append(String.format("Relevant variables after pruning: %.1f%%%n", 100 * getRelevantFraction()));
+        summary.append("Additions: ").append(getAdditions()).append(", multiplications: ").append(getMultiplications());
+        return summary.toString();
+    }
+
+    // Counts values in power-of-two buckets: bucket b holds values in [2^(b-1), 2^b), bucket 0 holds zero.
+    // Percentiles are reported as the upper bound of their bucket.
+    public static class Histogram {
+        private static final int BUCKETS = 64;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+
+        void record(long value) {
+            long clamped = Math.max(0, value);
+            buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(clamped)));
+            count.increment();
+            sum.add(clamped);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public double getMean() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+
+        // The smallest bucket bound below which at least the given fraction of values fall.
+        public long percentile(double fraction) {
+            long n = count.sum();
+            if (n == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(fraction * n);
+            long seen = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                seen += buckets.get(b);
+                if (seen >= Math.max(1, target)) {
+                    return b == 0 ? 0 : b == BUCKETS - 1 ? Long.MAX_VALUE : 1L << b;
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        // Non-empty buckets as upper bound -> count.
+        public SortedMap<Long, Long> getBuckets() {
+            SortedMap<Long, Long> nonEmpty = new TreeMap<>();
+            for (int b = 0; b < BUCKETS; b++) {
+                long n = buckets.get(b);
+                if (n > 0) {
+                    nonEmpty.put(b == 0 ? 0 : b == BUCKETS - 1 ? Long.MAX_VALUE : 1L << b, n);
+                }
+            }
+            return nonEmpty;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d mean=%.0f p50<=%d p90<=%d p99<=%d max<=%d", getCount(), getMean(),
+                    percentile(0.5), percentile(0.9), percentile(0.99), percentile(1));
+        }
+    }
+}
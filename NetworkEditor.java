@@ -0,0 +1,481 @@
+import java.util.*;
+
+// Edits a loaded network without going back to XML: nodes, edges and CPT entries can be added, removed and
+// updated, and publish() turns the edits made so far into a new immutable BayesianNetwork with the next
+// version number. Published networks never change, so a query keeps a consistent view of the version it
+// started on while edits and later publishes go on; engines and caches are built per published network.
+//
+// The topological order and every node's ancestor and descendant sets are maintained edge by edge. An edge
+// u->v closes a cycle exactly when v is already an ancestor of u, so the cycle check is one lookup. If u is
+// placed after v, only the nodes placed between them are reordered: u's ancestors among them move before
+// v's descendants among them, keeping their relative order (Pearce and Kelly's dynamic topological sort).
+// Removing an edge u->v recomputes the ancestor sets of v and its descendants and the descendant sets of u
+// and its ancestors, and leaves the order alone. Published networks reuse the maintained order, and the sets
+// become their ancestor and descendant Closures instead of being rebuilt.
+//
+// The sets take two bits per pair of nodes, so like Closure they are only kept while they fit in
+// Closure.MAX_BYTES. Past that the editor keeps the order alone: the cycle check searches forward from v
+// through the nodes placed up to u, and the search backward from u through those placed from v on gives the
+// nodes to move, as in Pearce and Kelly's original; published networks build their own Closures.
+//
+// CPTs follow the layout of Node.getTable: adding or removing an edge changes the child's table shape, so
+// the child's new table is passed along, laid out for its parents in the new order (an added parent becomes
+// the last one). Unchanged tables, including off-heap ones, are shared with the published networks.
+public class NetworkEditor {
+    private final Map<String, Var> variables = new LinkedHashMap<>();
+    // Indexed by Var.id, the bit each node has in the ancestor and descendant sets; removed nodes leave a null.
+    private final List<Var> byId = new ArrayList<>();
+    // Topological positions; a removed node leaves a null until the next publish compacts them.
+    private final List<Var> slots = new ArrayList<>();
+    private int nextId;
+    // Whether Var.ancestors and Var.descendants are kept; once dropped they are not rebuilt.
+    private boolean tracking;
+    private long version;
+    private volatile BayesianNetwork current;
+
+    public NetworkEditor(BayesianNetwork network) {
+        tracking = fits(network.getNodes().size());
+        for (Node node : network.getNodes().values()) {
+            Var var = new Var(nextId++, node.getName(), node.getOutcomes(), node.getCptTable(), tracking);
+            variables.put(var.name, var);
+            byId.add(var);
+        }
+        for (Node node : network.getNodes().values()) {
+            Var var = variables.get(node.getName());
+            for (Node parent : node.getParents()) {
+                var.parents.add(variables.get(parent.getName()));
+            }
+            for (Node child : node.getChildren()) {
+                var.children.add(variables.get(child.getName()));
+            }
+        }
+        for (Node node : network.topologicalSort()) {
+            Var var = variables.get(node.getName());
+            var.position = slots.size();
+            slots.add(var);
+        }
+        if (tracking) {
+            for (Var var : slots) {
+                computeAncestors(var);
+            }
+            for (int i = slots.size() - 1; i >= 0; i--) {
+                computeDescendants(slots.get(i));
+            }
+        }
+        this.version = network.getVersion();
+        this.current = network;
+    }
+
+    // The network of the last publish, or the one the editor started from.
+    public BayesianNetwork current() {
+        return current;
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    public synchronized BayesianNetwork publish() {
+        if (variables.size() < byId.size()) {
+            renumber();
+        }
+        Map<Var, Node> built = new HashMap<>(variables.size() * 2);
+        // Node ids, and with them the order VariableElimination multiplies factors in, follow the map's
+        // iteration order; inserting in the editor's order keeps that of an unedited network.
+        Map<String, Node> nodes = new LinkedHashMap<>();
+        for (Var var : variables.values()) {
+            Node node = new Node(var.name);
+            for (String outcome : var.outcomes) {
+                node.addOutcome(outcome);
+            }
+            built.put(var, node);
+            nodes.put(var.name, node);
+        }
+        for (Var var : variables.values()) {
+            Node node = built.get(var);
+            for (Var parent : var.parents) {
+                node.addParent(built.get(parent));
+            }
+            for (Var child : var.children) {
+                node.addChild(built.get(child));
+            }
+            if (var.edited != null) {
+                // The published network owns this array now; the next row update copies it again.
+                var.table = CptTable.of(var.edited);
+                var.edited = null;
+            }
+            if (var.table != null) {
+                node.setTable(var.table);
+            }
+        }
+
+        List<Node> order = new ArrayList<>(variables.size());
+        int position = 0;
+        for (Var var : slots) {
+            if (var != null) {
+                var.position = position++;
+                order.add(built.get(var));
+            }
+        }
+        slots.removeIf(Objects::isNull);
+
+        // Var ids are now the published node ids, so the sets are the closures' rows as they stand.
+        long[][] ancestorRows = null;
+        long[][] descendantRows = null;
+        if (tracking) {
+            ancestorRows = new long[byId.size()][];
+            descendantRows = new long[byId.size()][];
+            for (Var var : byId) {
+                ancestorRows[var.id] = var.ancestors.toLongArray();
+                descendantRows[var.id] = var.descendants.toLongArray();
+            }
+        }
+        BayesianNetwork network = new BayesianNetwork(nodes, Collections.unmodifiableList(order), ++version,
+                ancestorRows, descendantRows);
+        current = network;
+        return network;
+    }
+
+    // Adds a node without parents or children; its table holds one probability per outcome.
+    public synchronized void addNode(String name, List<String> outcomes, double[] table) {
+        if (variables.containsKey(name)) {
+            throw new IllegalArgumentException("Variable " + name + " already exists.");
+        }
+        if (outcomes.isEmpty()) {
+            throw new IllegalArgumentException("Variable " + name + " needs at least one outcome.");
+        }
+        Var var = new Var(nextId++, name, outcomes, null, tracking);
+        checkSize(var, var.parents, table);
+        if (tracking && !fits(nextId)) {
+            tracking = false;
+            for (Var other : byId) {
+                if (other != null) {
+                    other.ancestors = null;
+                    other.descendants = null;
+                }
+            }
+            var.ancestors = null;
+            var.descendants = null;
+        }
+        var.table = CptTable.of(table.clone());
+        var.position = slots.size();
+        slots.add(var);
+        variables.put(name, var);
+        byId.add(var);
+    }
+
+    // Removes a node and the edges from its parents. Its children's tables depend on it, so they must be
+    // detached first.
+    public synchronized void removeNode(String name) {
+        Var var = require(name);
+        if (!var.children.isEmpty()) {
+            throw new IllegalArgumentException("Variable " + name + " still has children " + names(var.children) + ".");
+        }
+        while (!var.parents.isEmpty()) {
+            Var parent = var.parents.remove(var.parents.size() - 1);
+            parent.children.remove(var);
+            if (tracking) {
+                refreshDescendants(parent);
+            }
+        }
+        slots.set(var.position, null);
+        byId.set(var.id, null);
+        variables.remove(name);
+    }
+
+    public synchronized void addEdge(String parentName, String childName, double[] childTable) {
+        Var u = require(parentName);
+        Var v = require(childName);
+        if (v.parents.contains(u)) {
+            throw new IllegalArgumentException("Edge " + parentName + " -> " + childName + " already exists.");
+        }
+        // Only an edge against the order can close a cycle, and only through the nodes placed between its ends.
+        BitSet below = null;
+        if (u != v && u.position > v.position && !tracking) {
+            below = reach(v, true, v.position, u.position);
+        }
+        if (u == v || (tracking ? u.ancestors.get(v.id) : below != null && below.get(u.id))) {
+            throw new IllegalArgumentException("Edge " + parentName + " -> " + childName + " would close a cycle.");
+        }
+        List<Var> newParents = new ArrayList<>(v.parents);
+        newParents.add(u);
+        checkSize(v, newParents, childTable);
+
+        if (u.position > v.position) {
+            if (tracking) {
+                reorder(u, v, u.ancestors, v.descendants);
+            } else {
+                reorder(u, v, reach(u, false, v.position, u.position), below);
+            }
+        }
+        v.parents.add(u);
+        u.children.add(v);
+        v.table = CptTable.of(childTable.clone());
+        v.edited = null;
+        if (!tracking) {
+            return;
+        }
+
+        BitSet above = (BitSet) u.ancestors.clone();
+        above.set(u.id);
+        below = (BitSet) v.descendants.clone();
+        below.set(v.id);
+        for (int id = below.nextSetBit(0); id >= 0; id = below.nextSetBit(id + 1)) {
+            byId.get(id).ancestors.or(above);
+        }
+        for (int id = above.nextSetBit(0); id >= 0; id = above.nextSetBit(id + 1)) {
+            byId.get(id).descendants.or(below);
+        }
+    }
+
+    public synchronized void removeEdge(String parentName, String childName, double[] childTable) {
+        Var u = require(parentName);
+        Var v = require(childName);
+        if (!v.parents.contains(u)) {
+            throw new IllegalArgumentException("There is no edge " + parentName + " -> " + childName + ".");
+        }
+        List<Var> newParents = new ArrayList<>(v.parents);
+        newParents.remove(u);
+        checkSize(v, newParents, childTable);
+
+        v.parents.remove(u);
+        u.children.remove(v);
+        v.table = CptTable.of(childTable.clone());
+        v.edited = null;
+        if (!tracking) {
+            return;
+        }
+        refreshDescendants(u);
+        // v keeps its descendants, which are all placed after it and are recomputed from the first on.
+        for (int i = v.position; i < slots.size(); i++) {
+            Var var = slots.get(i);
+            if (var == v || var != null && v.descendants.get(var.id)) {
+                computeAncestors(var);
+            }
+        }
+    }
+
+    public synchronized void setTable(String name, double[] table) {
+        Var var = require(name);
+        checkSize(var, var.parents, table);
+        var.table = CptTable.of(table.clone());
+        var.edited = null;
+    }
+
+    // Replaces the distribution of name given one assignment of all its parents.
+    public synchronized void setRow(String name, Map<String, String> parentOutcomes, double[] distribution) {
+        Var var = require(name);
+        if (var.table == null) {
+            throw new IllegalArgumentException("Variable " + name + " has no CPT to update; set one with setTable.");
+        }
+        if (distribution.length != var.outcomes.size()) {
+            throw new IllegalArgumentException("A row of " + name + " has " + var.outcomes.size() + " entries, got "
+                    + distribution.length + ".");
+        }
+        int row = 0;
+        for (Var parent : var.parents) {
+            String outcome = parentOutcomes.get(parent.name);
+            int index = outcome != null ? parent.outcomes.indexOf(outcome) : -1;
+            if (index < 0) {
+                throw new IllegalArgumentException("No outcome of parent " + parent.name + " given for " + name + ".");
+            }
+            row = row * parent.outcomes.size() + index;
+        }
+        if (var.edited == null) {
+            var.edited = var.table.isOffHeap() ? var.table.toArray() : var.table.toArray().clone();
+        }
+        System.arraycopy(distribution, 0, var.edited, row * distribution.length, distribution.length);
+    }
+
+    public synchronized Set<String> getAncestors(String name) {
+        return namesOf(require(name), false);
+    }
+
+    public synchronized Set<String> getDescendants(String name) {
+        return namesOf(require(name), true);
+    }
+
+    public synchronized List<String> getTopologicalOrder() {
+        List<String> order = new ArrayList<>(variables.size());
+        for (Var var : slots) {
+            if (var != null) {
+                order.add(var.name);
+            }
+        }
+        return order;
+    }
+
+    // Moves u's ancestors placed after v in front of v's descendants placed before u, reusing their positions.
+    // above and below hold at least those ancestors and descendants.
+    private void reorder(Var u, Var v, BitSet above, BitSet below) {
+        List<Var> backward = new ArrayList<>();
+        List<Var> forward = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        for (int i = v.position; i <= u.position; i++) {
+            Var var = slots.get(i);
+            if (var == null) {
+                continue;
+            }
+            if (var == u || above.get(var.id)) {
+                backward.add(var);
+                positions.add(i);
+            } else if (var == v || below.get(var.id)) {
+                forward.add(var);
+                positions.add(i);
+            }
+        }
+        backward.addAll(forward);
+        for (int k = 0; k < backward.size(); k++) {
+            Var var = backward.get(k);
+            var.position = positions.get(k);
+            slots.set(var.position, var);
+        }
+    }
+
+    // After removing an edge from u, u and its ancestors may have lost descendants. They are all placed up to
+    // u and are recomputed from the last to the first.
+    private void refreshDescendants(Var u) {
+        for (int i = u.position; i >= 0; i--) {
+            Var var = slots.get(i);
+            if (var == u || var != null && u.ancestors.get(var.id)) {
+                computeDescendants(var);
+            }
+        }
+    }
+
+    private void computeAncestors(Var var) {
+        var.ancestors.clear();
+        for (Var parent : var.parents) {
+            var.ancestors.or(parent.ancestors);
+            var.ancestors.set(parent.id);
+        }
+    }
+
+    private void computeDescendants(Var var) {
+        var.descendants.clear();
+        for (Var child : var.children) {
+            var.descendants.or(child.descendants);
+            var.descendants.set(child.id);
+        }
+    }
+
+    // Ids of start and of the nodes placed from low to high that it reaches along child (down) or parent edges
+    // without leaving those positions.
+    private static BitSet reach(Var start, boolean down, int low, int high) {
+        BitSet seen = new BitSet();
+        Deque<Var> pending = new ArrayDeque<>();
+        seen.set(start.id);
+        pending.push(start);
+        while (!pending.isEmpty()) {
+            for (Var next : down ? pending.pop().children : pending.pop().parents) {
+                if (next.position >= low && next.position <= high && !seen.get(next.id)) {
+                    seen.set(next.id);
+                    pending.push(next);
+                }
+            }
+        }
+        return seen;
+    }
+
+    private Set<String> namesOf(Var of, boolean down) {
+        BitSet ids;
+        if (tracking) {
+            ids = down ? of.descendants : of.ancestors;
+        } else {
+            ids = reach(of, down, 0, slots.size() - 1);
+            ids.clear(of.id);
+        }
+        Set<String> names = new LinkedHashSet<>();
+        for (Var var : slots) {
+            if (var != null && ids.get(var.id)) {
+                names.add(var.name);
+            }
+        }
+        return names;
+    }
+
+    // Gives the nodes left after removals the ids 0, 1, ... in the order of variables, which is the order of
+    // their ids and the one the published network numbers its nodes in.
+    private void renumber() {
+        int[] renumbered = new int[byId.size()];
+        int next = 0;
+        for (Var var : variables.values()) {
+            renumbered[var.id] = next++;
+        }
+        for (Var var : variables.values()) {
+            if (tracking) {
+                var.ancestors = renumber(var.ancestors, renumbered);
+                var.descendants = renumber(var.descendants, renumbered);
+            }
+            var.id = renumbered[var.id];
+        }
+        byId.clear();
+        byId.addAll(variables.values());
+        nextId = next;
+    }
+
+    private static BitSet renumber(BitSet ids, int[] renumbered) {
+        BitSet result = new BitSet();
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            result.set(renumbered[id]);
+        }
+        return result;
+    }
+
+    // Whether the sets of n nodes, two bits per pair, stay within Closure's limit.
+    private static boolean fits(long n) {
+        return n * n / 4 <= Closure.MAX_BYTES;
+    }
+
+    private static List<String> names(List<Var> vars) {
+        List<String> names = new ArrayList<>(vars.size());
+        for (Var var : vars) {
+            names.add(var.name);
+        }
+        return names;
+    }
+
+    private Var require(String name) {
+        Var var = variables.get(name);
+        if (var == null) {
+            throw new IllegalArgumentException("Unknown variable: " + name);
+        }
+        return var;
+    }
+
+    private static void checkSize(Var var, List<Var> parents, double[] table) {
+        int expected = var.outcomes.size();
+        for (Var parent : parents) {
+            expected *= parent.outcomes.size();
+        }
+        if (table.length != expected) {
+            throw new IllegalArgumentException("CPT of " + var.name + " has " + table.length + " entries, expected " + expected + ".");
+        }
+    }
+
+    private static class Var {
+        private int id;
+        private final String name;
+        private final List<String> outcomes;
+        private final List<Var> parents = new ArrayList<>();
+        private final List<Var> children = new ArrayList<>();
+        // Null once the editor stops keeping the sets.
+        private BitSet ancestors;
+        private BitSet descendants;
+        private CptTable table;
+        // A private copy of table with the row updates since the last publish, or null.
+        private double[] edited;
+        private int position;
+
+        Var(int id, String name, List<String> outcomes, CptTable table, boolean tracking) {
+            this.id = id;
+            this.name = name;
+            this.outcomes = new ArrayList<>(outcomes);
+            this.table = table;
+            if (tracking) {
+                this.ancestors = new BitSet();
+                this.descendants = new BitSet();
+            }
+        }
+    }
+}
@@ -0,0 +1,219 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+// A compiled BayesianNetwork in a compact binary file next to its XMLBIF source, so later runs can skip
+// XML parsing. The file is memory-mapped and read with bulk array copies.
+//
+// Layout, all big-endian:
+//   header:  magic, version (int), payload length, payload CRC-32, source size, source last-modified (long)
+//   payload: string table (count, then length-prefixed UTF-8), node count, then per node in the network's
+//            iteration order: name id, outcome ids, parent indices, child indices (each count-prefixed) and
+//            the CPT as raw doubles (length-prefixed), and finally the topological order (count-prefixed,
+//            empty if the network has a cycle).
+// A snapshot is stale when its version differs or the source changed size or modification time since it
+// was written; a stale or damaged snapshot is never read.
+public final class NetworkSnapshot {
+    static final int MAGIC = 0x424E5350;
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 8;
+
+    private NetworkSnapshot() {
+    }
+
+    public static File snapshotFile(String xmlFileName) {
+        return new File(xmlFileName + ".bns");
+    }
+
+    // Reads the snapshot of the XML file if it is up to date, otherwise parses the XML and writes a fresh
+    // snapshot for the next run. Failing to write the snapshot does not fail the load.
+    public static BayesianNetwork load(String xmlFileName) throws IOException, javax.xml.stream.XMLStreamException {
+        File xml = new File(xmlFileName);
+        File snapshot = snapshotFile(xmlFileName);
+        BayesianNetwork network = read(xml, snapshot);
+        if (network != null) {
+            return network;
+        }
+        network = new BayesianNetwork(xmlFileName);
+        try {
+            write(network, xml, snapshot);
+        } catch (IOException e) {
+            System.err.println("Could not write network snapshot " + snapshot + ": " + e.getMessage());
+        }
+        return network;
+    }
+
+    // The network stored in snapshot, or null if the snapshot is missing, stale or damaged.
+    public static BayesianNetwork read(File xml, File snapshot) throws IOException {
+        if (!snapshot.isFile() || snapshot.length() < HEADER_SIZE) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(snapshot.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            long payloadLength = buffer.getLong();
+            long checksum = buffer.getLong();
+            long sourceSize = buffer.getLong();
+            long sourceModified = buffer.getLong();
+            if (sourceSize != xml.length() || sourceModified != xml.lastModified()
+                    || payloadLength != channel.size() - HEADER_SIZE) {
+                return null;
+            }
+            ByteBuffer payload = buffer.slice();
+            CRC32 crc = new CRC32();
+            crc.update(payload.duplicate());
+            if (crc.getValue() != checksum) {
+                return null;
+            }
+            return decode(payload);
+        } catch (RuntimeException e) {
+            // A damaged payload can fail anywhere in decode; treat it like a stale file.
+            return null;
+        }
+    }
+
+    public static void write(BayesianNetwork network, File xml, File snapshot) throws IOException {
+        byte[] payload = encode(network);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(payload.length).putLong(crc.getValue())
+                .putLong(xml.length()).putLong(xml.lastModified());
+
+        // Written to a temporary file first, so a concurrent reader never maps a half-written snapshot.
+        File temporary = new File(snapshot.getPath() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temporary), 1 << 16)) {
+            out.write(header.array());
+            out.write(payload);
+        }
+        try {
+            Files.move(temporary.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static byte[] encode(BayesianNetwork network) throws IOException {
+        List<Node> nodes = new ArrayList<>(network.getNodes().values());
+        Map<Node, Integer> index = new HashMap<>();
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        for (Node node : nodes) {
+            index.put(node, index.size());
+            strings.putIfAbsent(node.getName(), strings.size());
+            for (String outcome : node.getOutcomes()) {
+                strings.putIfAbsent(outcome, strings.size());
+            }
+        }
+        List<Node> order;
+        try {
+            order = network.topologicalSort();
+        } catch (IllegalStateException cyclic) {
+            order = Collections.emptyList();
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(strings.size());
+        for (String string : strings.keySet()) {
+            byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(utf8.length);
+            out.write(utf8);
+        }
+        out.writeInt(nodes.size());
+        for (Node node : nodes) {
+            out.writeInt(strings.get(node.getName()));
+            out.writeInt(node.getCardinality());
+            for (String outcome : node.getOutcomes()) {
+                out.writeInt(strings.get(outcome));
+            }
+            writeIndices(out, node.getParents(), index);
+            writeIndices(out, node.getChildren(), index);
+            CptTable table = node.getCptTable();
+            int size = table != null ? table.size() : 0;
+            out.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                out.writeDouble(table.get(i));
+            }
+        }
+        writeIndices(out, order, index);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeIndices(DataOutputStream out, List<Node> nodes, Map<Node, Integer> index) throws IOException {
+        out.writeInt(nodes.size());
+        for (Node node : nodes) {
+            out.writeInt(index.get(node));
+        }
+    }
+
+    private static BayesianNetwork decode(ByteBuffer in) {
+        String[] strings = new String[in.getInt()];
+        byte[] utf8 = new byte[64];
+        for (int i = 0; i < strings.length; i++) {
+            int length = in.getInt();
+            if (length > utf8.length) {
+                utf8 = new byte[Math.max(length, utf8.length * 2)];
+            }
+            in.get(utf8, 0, length);
+            strings[i] = new String(utf8, 0, length, StandardCharsets.UTF_8);
+        }
+
+        int n = in.getInt();
+        Node[] nodes = new Node[n];
+        int[][] parents = new int[n][];
+        int[][] children = new int[n][];
+        double[][] tables = new double[n][];
+        for (int v = 0; v < n; v++) {
+            nodes[v] = new Node(strings[in.getInt()]);
+            for (int outcome : readInts(in)) {
+                nodes[v].addOutcome(strings[outcome]);
+            }
+            parents[v] = readInts(in);
+            children[v] = readInts(in);
+            tables[v] = new double[in.getInt()];
+            in.asDoubleBuffer().get(tables[v]);
+            in.position(in.position() + tables[v].length * Double.BYTES);
+        }
+        int[] order = readInts(in);
+
+        // Inserting in the stored order reproduces the iteration order of the network that was written.
+        Map<String, Node> byName = new LinkedHashMap<>(n * 4 / 3 + 1);
+        for (int v = 0; v < n; v++) {
+            for (int parent : parents[v]) {
+                nodes[v].addParent(nodes[parent]);
+            }
+            for (int child : children[v]) {
+                nodes[v].addChild(nodes[child]);
+            }
+            if (tables[v].length > 0) {
+                nodes[v].setTable(tables[v]);
+            }
+            byName.put(nodes[v].getName(), nodes[v]);
+        }
+        List<Node> topologicalOrder = null;
+        if (order.length == n) {
+            topologicalOrder = new ArrayList<>(n);
+            for (int v : order) {
+                topologicalOrder.add(nodes[v]);
+            }
+            topologicalOrder = Collections.unmodifiableList(topologicalOrder);
+        }
+        return new BayesianNetwork(byName, topologicalOrder);
+    }
+
+    private static int[] readInts(ByteBuffer in) {
+        int[] values = new int[in.getInt()];
+        in.asIntBuffer().get(values);
+        in.position(in.position() + values.length * Integer.BYTES);
+        return values;
+    }
+}
@@ -0,0 +1,117 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+// Keeps large CPTs outside the Java heap, in a file of raw doubles that is memory-mapped once all tables are
+// written. Tables smaller than minEntries stay on the heap, where a mapping would cost more than it saves.
+//
+// Use: append each table while loading, then map() and replace every handle with table(handle). Appending
+// writes straight to the file, so the heap only ever holds the table currently being loaded.
+public final class OffHeapCptStore implements Closeable {
+    public static final int DEFAULT_MIN_ENTRIES = 1 << 12;
+    // Chunks of 2^27 doubles, so every chunk fits in one MappedByteBuffer.
+    private static final int CHUNK_SHIFT = 27;
+    private static final long CHUNK_BYTES = (1L << CHUNK_SHIFT) * Double.BYTES;
+
+    private final File file;
+    private final FileChannel channel;
+    private final int minEntries;
+    private final List<double[]> heapTables = new ArrayList<>();
+    private final List<long[]> offHeapTables = new ArrayList<>();
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.nativeOrder());
+    private long written;
+    private long filePosition;
+    private DoubleBuffer[] chunks;
+
+    public OffHeapCptStore(File file) throws IOException {
+        this(file, DEFAULT_MIN_ENTRIES);
+    }
+
+    public OffHeapCptStore(File file, int minEntries) throws IOException {
+        this.file = file;
+        this.minEntries = minEntries;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    // A store in a temporary file that is deleted when the JVM exits.
+    public static OffHeapCptStore temporary() throws IOException {
+        File file = File.createTempFile("cpt-", ".bin");
+        file.deleteOnExit();
+        return new OffHeapCptStore(file);
+    }
+
+    // Records a table and returns its handle. Handles of off-heap tables are negative.
+    public int append(double[] values) throws IOException {
+        if (chunks != null) {
+            throw new IllegalStateException("The store is already mapped.");
+        }
+        if (values.length < minEntries) {
+            heapTables.add(values);
+            return heapTables.size() - 1;
+        }
+        offHeapTables.add(new long[]{written, values.length});
+        for (double value : values) {
+            if (buffer.remaining() < Double.BYTES) {
+                flush();
+            }
+            buffer.putDouble(value);
+        }
+        flush();
+        written += values.length;
+        return -offHeapTables.size();
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            filePosition += channel.write(buffer, filePosition);
+        }
+        buffer.clear();
+    }
+
+    // Maps the written tables; no more tables can be appended afterwards.
+    public void map() throws IOException {
+        if (chunks != null) {
+            return;
+        }
+        long bytes = written * Double.BYTES;
+        int count = (int) ((bytes + CHUNK_BYTES - 1) / CHUNK_BYTES);
+        chunks = new DoubleBuffer[count];
+        for (int c = 0; c < count; c++) {
+            long offset = c * CHUNK_BYTES;
+            long length = Math.min(CHUNK_BYTES, bytes - offset);
+            chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, offset, length).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        }
+    }
+
+    public CptTable table(int handle) {
+        if (handle >= 0) {
+            return CptTable.of(heapTables.get(handle));
+        }
+        if (chunks == null) {
+            throw new IllegalStateException("Off-heap tables are only available after map().");
+        }
+        long[] table = offHeapTables.get(-handle - 1);
+        return new CptTable.Mapped(chunks, CHUNK_SHIFT, table[0], (int) table[1]);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    // Bytes of CPT values kept outside the heap.
+    public long getOffHeapBytes() {
+        return written * Double.BYTES;
+    }
+
+    // Mappings stay valid after the channel is closed, so tables handed out remain readable.
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
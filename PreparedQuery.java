@@ -0,0 +1,114 @@
+import java.util.*;
+
+// A query compiled by VariableElimination.prepare. The relevant variables, the factor scopes and the
+// elimination order are fixed; each run only binds evidence values and eliminates.
+public class PreparedQuery {
+    private final VariableElimination engine;
+    private final Node queryNode;
+    private final String queryValue;
+    private final List<Node> evidenceNodes;
+    private final List<Skeleton> skeletons;
+    // Node ids.
+    private final int[] eliminationOrder;
+    private final EliminationOrdering.Plan plan;
+
+    PreparedQuery(VariableElimination engine, Node queryNode, String queryValue, List<Node> evidenceNodes,
+                  List<Node> factorNodes, int[] eliminationOrder, EliminationOrdering.Plan plan) {
+        this.engine = engine;
+        this.queryNode = queryNode;
+        this.queryValue = queryValue;
+        this.evidenceNodes = evidenceNodes;
+        this.skeletons = new ArrayList<>(factorNodes.size());
+        for (Node node : factorNodes) {
+            skeletons.add(new Skeleton(node, evidenceNodes));
+        }
+        this.eliminationOrder = eliminationOrder;
+        this.plan = plan;
+    }
+
+    // Values are given in the order of getEvidenceVariables(), i.e. the order they appear in the template.
+    public QueryResult run(String... evidenceValues) {
+        return runValues(new String[]{queryValue}, evidenceValues)[0];
+    }
+
+    // One run answering the query for each of queryValues instead of the template's value.
+    QueryResult[] runValues(String[] queryValues, String[] evidenceValues) {
+        if (evidenceValues.length != evidenceNodes.size()) {
+            throw new IllegalArgumentException("Expected " + evidenceNodes.size() + " evidence values but got " + evidenceValues.length + ".");
+        }
+        int[] bound = new int[evidenceValues.length];
+        for (int i = 0; i < evidenceValues.length; i++) {
+            Node node = evidenceNodes.get(i);
+            int outcome = node.getSymbols().outcomeId(node.getId(), evidenceValues[i]);
+            bound[i] = outcome >= 0 ? outcome : Factor.OUTSIDE_DOMAIN;
+        }
+
+        boolean keyed = engine.getCache() != null;
+        List<Factor> factors = new ArrayList<>(skeletons.size());
+        for (Skeleton skeleton : skeletons) {
+            Factor factor = skeleton.instantiate(bound, keyed);
+            if (factor.size() > 1) {
+                factors.add(factor);
+            }
+        }
+        return engine.eliminate(factors, eliminationOrder, queryNode, queryValues, evidenceNodes, bound, evidenceValues);
+    }
+
+    public String getQueryVariable() {
+        return queryNode.getName();
+    }
+
+    public String getQueryValue() {
+        return queryValue;
+    }
+
+    public List<String> getEvidenceVariables() {
+        List<String> names = new ArrayList<>(evidenceNodes.size());
+        for (Node node : evidenceNodes) {
+            names.add(node.getName());
+        }
+        return Collections.unmodifiableList(names);
+    }
+
+    public List<String> getEliminationOrder() {
+        List<String> names = new ArrayList<>(eliminationOrder.length);
+        for (int id : eliminationOrder) {
+            names.add(queryNode.getSymbols().name(id));
+        }
+        return Collections.unmodifiableList(names);
+    }
+
+    // The planner's result when the order was chosen automatically, otherwise null.
+    public EliminationOrdering.Plan getPlan() {
+        return plan;
+    }
+
+    // The CPT of one relevant node with, for each variable in its scope, the evidence slot that fixes it.
+    private static class Skeleton {
+        private final Node node;
+        private final int[] evidenceSlots;
+
+        Skeleton(Node node, List<Node> evidenceNodes) {
+            this.node = node;
+            List<Node> parents = node.getParents();
+            this.evidenceSlots = new int[parents.size() + 1];
+            for (int i = 0; i < parents.size(); i++) {
+                evidenceSlots[i] = evidenceNodes.indexOf(parents.get(i));
+            }
+            evidenceSlots[parents.size()] = evidenceNodes.indexOf(node);
+        }
+
+        // With keyed set, the factor carries its FactorCache key.
+        Factor instantiate(int[] bound, boolean keyed) {
+            int[] observed = new int[evidenceSlots.length];
+            for (int i = 0; i < observed.length; i++) {
+                observed[i] = evidenceSlots[i] < 0 ? Factor.UNOBSERVED : bound[evidenceSlots[i]];
+            }
+            Factor factor = new Factor(node, observed);
+            if (keyed) {
+                factor.setCacheKey(FactorCache.leafKey(node, observed));
+            }
+            return factor;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+import java.util.*;
+
+// Cuts a network down to the part a query needs before any factor is built. Three reductions are applied:
+//  - barren nodes, which are neither asked for, observed nor above a node that is, are removed over and over
+//    until none is left; what remains is the ancestral set of the query and the evidence;
+//  - edges out of evidence nodes are cut, and each child keeps the slice of its CPT at the observed value
+//    (PreparedQuery instantiates those slices);
+//  - once those edges are gone, components not connected to the query variable only contribute a constant
+//    that normalization cancels, so they are dropped, evidence nodes in them included.
+// The result depends only on the query variable and the set of evidence variables, so it is kept per shape
+// and later queries of the same shape skip the reduction. The least recently used shapes are evicted.
+class QueryReducer {
+    private static final int MAX_SHAPES = 4096;
+
+    private final BayesianNetwork network;
+    private final Map<String, Reduction> shapes = new LinkedHashMap<String, Reduction>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Reduction> eldest) {
+            return size() > MAX_SHAPES;
+        }
+    };
+
+    QueryReducer(BayesianNetwork network) {
+        this.network = network;
+    }
+
+    // The reduction for a query variable and evidence variables, given as node ids.
+    Reduction reduce(int query, int[] evidence) {
+        int[] observed = Arrays.stream(evidence).sorted().distinct().toArray();
+        String shape = query + "|" + Arrays.toString(observed);
+        synchronized (shapes) {
+            Reduction reduction = shapes.get(shape);
+            if (reduction != null) {
+                return reduction;
+            }
+        }
+        Reduction reduction = compute(query, observed);
+        synchronized (shapes) {
+            shapes.put(shape, reduction);
+        }
+        return reduction;
+    }
+
+    private Reduction compute(int query, int[] evidence) {
+        BitSet observed = new BitSet();
+        for (int id : evidence) {
+            observed.set(id);
+        }
+        BitSet start = (BitSet) observed.clone();
+        start.set(query);
+        BitSet ancestral = network.getAncestors(start);
+
+        // The query's component, following edges within the ancestral set except those out of evidence nodes.
+        BitSet nodes = new BitSet();
+        int[] queue = new int[ancestral.cardinality()];
+        int tail = 0;
+        nodes.set(query);
+        queue[tail++] = query;
+        for (int head = 0; head < tail; head++) {
+            Node node = network.getNode(queue[head]);
+            for (Node parent : node.getParents()) {
+                int id = parent.getId();
+                if (!observed.get(id) && !nodes.get(id)) {
+                    nodes.set(id);
+                    queue[tail++] = id;
+                }
+            }
+            if (!observed.get(node.getId())) {
+                for (Node child : node.getChildren()) {
+                    int id = child.getId();
+                    if (ancestral.get(id) && !nodes.get(id)) {
+                        nodes.set(id);
+                        queue[tail++] = id;
+                    }
+                }
+            }
+        }
+
+        BitSet hidden = (BitSet) nodes.clone();
+        hidden.andNot(observed);
+        hidden.clear(query);
+        return new Reduction(nodes, hidden);
+    }
+
+    // Shared between queries, so the sets must not be modified.
+    static final class Reduction {
+        private final BitSet nodes;
+        private final BitSet hidden;
+
+        Reduction(BitSet nodes, BitSet hidden) {
+            this.nodes = nodes;
+            this.hidden = hidden;
+        }
+
+        // Ids of the nodes whose CPTs become factors: the query variable, the evidence variables still
+        // connected to it and the variables to eliminate.
+        BitSet getNodes() {
+            return nodes;
+        }
+
+        BitSet getHidden() {
+            return hidden;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+// Outcome of one variable-elimination query: the probability and the operations spent computing it.
+public class QueryResult {
+    private final double probability;
+    private final int additionCount;
+    private final int multiplicationCount;
+
+    public QueryResult(double probability, int additionCount, int multiplicationCount) {
+        this.probability = probability;
+        this.additionCount = additionCount;
+        this.multiplicationCount = multiplicationCount;
+    }
+
+    public double getProbability() {
+        return probability;
+    }
+
+    public int getAdditionCount() {
+        return additionCount;
+    }
+
+    public int getMultiplicationCount() {
+        return multiplicationCount;
+    }
+
+    // The output line format: probability with five decimals, then additions and multiplications.
+    @Override
+    public String toString() {
+        return String.format("%.5f,%d,%d", probability, additionCount, multiplicationCount);
+    }
+}
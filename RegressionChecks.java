@@ -0,0 +1,325 @@
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+// Checks that run with the sources alone: compile the tree and run "java RegressionChecks". Unlike the JUnit
+// tests, which stay commented out until the build has JUnit, these need nothing on the classpath. Each check
+// throws on failure; main runs them all and exits with 1 if any failed.
+public class RegressionChecks {
+    private static final String ALARM = "<NETWORK>\n"
+            + variable("E", 2) + variable("B", 2) + variable("A", 2) + variable("J", 2) + variable("M", 2)
+            + definition("E", List.of(), "0.002 0.998")
+            + definition("B", List.of(), "0.001 0.999")
+            + definition("A", List.of("B", "E"), "0.95 0.05 0.94 0.06 0.29 0.71 0.001 0.999")
+            + definition("J", List.of("A"), "0.9 0.1 0.05 0.95")
+            + definition("M", List.of("A"), "0.7 0.3 0.01 0.99")
+            + "</NETWORK>\n";
+
+    private interface Check {
+        void run() throws Exception;
+    }
+
+    public static void main(String[] args) {
+        Map<String, Check> checks = new LinkedHashMap<>();
+        checks.put("sampling line keeping its elimination order", RegressionChecks::samplingKeepsOrder);
+        checks.put("malformed sampling line in a batch", RegressionChecks::malformedSamplingLine);
+        checks.put("setRow on a node without a CPT", RegressionChecks::setRowWithoutTable);
+        checks.put("closures of a published network", RegressionChecks::publishedClosures);
+        checks.put("snapshot keeps the node order", RegressionChecks::snapshotNodeOrder);
+        checks.put("unedited publish keeps order and answers", RegressionChecks::uneditedPublish);
+        checks.put("query reduction keeps only relevant nodes", RegressionChecks::reductionShapes);
+        checks.put("reduced queries match enumeration", RegressionChecks::reducedAnswersMatchEnumeration);
+        checks.put("scaled floats survive a long chain", RegressionChecks::scaledFloatLongChain);
+
+        int failed = 0;
+        for (Map.Entry<String, Check> check : checks.entrySet()) {
+            try {
+                check.getValue().run();
+                System.out.println("ok   " + check.getKey());
+            } catch (Exception | AssertionError e) {
+                failed++;
+                System.out.println("FAIL " + check.getKey() + ": " + e);
+            }
+        }
+        System.out.println(checks.size() - failed + "/" + checks.size() + " checks passed");
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    // The order Ex1 lines carry for variable elimination may stay on a sampling line.
+    private static void samplingKeepsOrder() throws Exception {
+        BayesianNetwork alarm = load(ALARM);
+        String budget = " ~lw:samples=20000,seed=7";
+        try (BatchQueryExecutor executor = new BatchQueryExecutor(alarm, 2, false, false)) {
+            List<String> answers = executor.runAll(List.of("P(J=T|B=T)" + budget, "P(J=T|B=T) A-E-M" + budget,
+                    "P(J=T|B=T) " + budget.trim() + " A-E-M"));
+            check(answers.get(0).equals(answers.get(1)), "order before the method changed the answer: " + answers);
+            check(answers.get(0).equals(answers.get(2)), "order after the method changed the answer: " + answers);
+        }
+    }
+
+    private static void malformedSamplingLine() throws Exception {
+        BayesianNetwork alarm = load(ALARM);
+        try (BatchQueryExecutor executor = new BatchQueryExecutor(alarm, 2, false, false)) {
+            List<String> answers = executor.runAll(List.of("P(J=T|B=T) ~nope", "P(J=T|B=T) A-E-M",
+                    "P(Q=T) ~lw:samples=10", "P(J=T) ~lw:soon"));
+            check(answers.size() == 4, "expected four answers, got " + answers);
+            check(answers.get(0).equals("Invalid query format"), "unknown method answered " + answers.get(0));
+            check(answers.get(1).equals(new VariableElimination(alarm).run("P(J=T|B=T) A-E-M")),
+                    "the exact query next to it answered " + answers.get(1));
+            check(answers.get(2).equals("Invalid query format"), "unknown variable answered " + answers.get(2));
+            check(answers.get(3).equals("Invalid query format"), "unknown budget answered " + answers.get(3));
+        }
+    }
+
+    private static void setRowWithoutTable() throws Exception {
+        BayesianNetwork network = load("<NETWORK>\n" + variable("A", 2) + variable("B", 2)
+                + definition("B", List.of(), "0.4 0.6") + "</NETWORK>\n");
+        NetworkEditor editor = new NetworkEditor(network);
+        try {
+            editor.setRow("A", Map.of(), new double[]{0.5, 0.5});
+            throw new AssertionError("setRow accepted a node without a CPT");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+        editor.setTable("A", new double[]{0.2, 0.8});
+        editor.setRow("A", Map.of(), new double[]{0.5, 0.5});
+        check(editor.publish().getNodeByName("A").getTable()[0] == 0.5, "the row update was lost");
+    }
+
+    // An edge against the order reorders the nodes between its ends; the published network's closures and
+    // order must agree with its edges.
+    private static void publishedClosures() throws Exception {
+        NetworkEditor editor = new NetworkEditor(load(ALARM));
+        editor.addNode("Z", List.of("T", "F"), new double[]{0.5, 0.5});
+        editor.addEdge("Z", "E", new double[]{0.1, 0.9, 0.2, 0.8});
+        editor.removeEdge("Z", "E", new double[]{0.002, 0.998});
+        editor.addEdge("M", "Z", new double[]{0.1, 0.9, 0.2, 0.8});
+        try {
+            editor.addEdge("Z", "B", new double[]{0.5, 0.5, 0.5, 0.5});
+            throw new AssertionError("Z -> B closed the cycle B -> A -> M -> Z -> B");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+        BayesianNetwork published = editor.publish();
+        List<String> order = new ArrayList<>();
+        for (Node node : published.topologicalSort()) {
+            order.add(node.getName());
+        }
+        for (Node node : published.getNodes().values()) {
+            for (Node child : node.getChildren()) {
+                check(order.indexOf(node.getName()) < order.indexOf(child.getName()), "order " + order);
+            }
+        }
+        check(namesOf(published, published.getAncestors(idsOf(published, "Z"))).equals(Set.of("Z", "M", "A", "B", "E")),
+                "ancestors of Z");
+        check(namesOf(published, published.getDescendants(idsOf(published, "E"))).equals(Set.of("E", "A", "J", "M", "Z")),
+                "descendants of E");
+        check(editor.getAncestors("Z").equals(Set.of("M", "A", "B", "E")), "editor ancestors of Z");
+    }
+
+    // Node ids, and with them the order factors are multiplied in, follow the map's iteration order. An edited
+    // network's order is not the one its names hash to, so a snapshot has to keep it explicitly.
+    private static void snapshotNodeOrder() throws Exception {
+        NetworkEditor editor = new NetworkEditor(load(ALARM));
+        for (String name : List.of("Zq", "Y7", "Xa", "W3", "Vk")) {
+            editor.addNode(name, List.of("T", "F"), new double[]{0.5, 0.5});
+        }
+        BayesianNetwork edited = editor.publish();
+        Path xml = Files.createTempFile("network", ".xml");
+        File snapshot = NetworkSnapshot.snapshotFile(xml.toString());
+        try {
+            NetworkSnapshot.write(edited, xml.toFile(), snapshot);
+            BayesianNetwork read = NetworkSnapshot.read(xml.toFile(), snapshot);
+            check(read != null, "the snapshot was not read back");
+            check(new ArrayList<>(read.getNodes().keySet()).equals(new ArrayList<>(edited.getNodes().keySet())),
+                    "order " + read.getNodes().keySet() + " instead of " + edited.getNodes().keySet());
+            String query = "P(B=T|J=T,M=T) A-E";
+            check(new VariableElimination(read).run(query).equals(new VariableElimination(edited).run(query)),
+                    "the snapshot answers differently");
+        } finally {
+            Files.deleteIfExists(snapshot.toPath());
+            Files.delete(xml);
+        }
+    }
+
+    private static void uneditedPublish() throws Exception {
+        BayesianNetwork alarm = load(ALARM);
+        BayesianNetwork published = new NetworkEditor(alarm).publish();
+        check(new ArrayList<>(published.getNodes().keySet()).equals(new ArrayList<>(alarm.getNodes().keySet())),
+                "order " + published.getNodes().keySet());
+        check(published.getVersion() == alarm.getVersion() + 1, "version " + published.getVersion());
+        for (String query : List.of("P(B=T|J=T,M=T) A-E", "P(J=T|B=T) M-E-A", "P(E=T) A-B-J-M")) {
+            check(new VariableElimination(published).run(query).equals(new VariableElimination(alarm).run(query)),
+                    query);
+        }
+    }
+
+    // Barren nodes go, evidence cuts the edges out of it, and what the cut leaves apart from the query goes.
+    private static void reductionShapes() throws Exception {
+        BayesianNetwork alarm = load(ALARM);
+        checkReduction(alarm, "J", List.of("B"), Set.of("J", "A", "E"), Set.of("A", "E"));
+        checkReduction(alarm, "B", List.of("J"), Set.of("B", "A", "E", "J"), Set.of("A", "E"));
+        checkReduction(alarm, "B", List.of("A"), Set.of("B", "A", "E"), Set.of("E"));
+        checkReduction(alarm, "E", List.of("B"), Set.of("E"), Set.of());
+        checkReduction(alarm, "J", List.of("A"), Set.of("J"), Set.of());
+    }
+
+    private static void checkReduction(BayesianNetwork network, String query, List<String> evidence,
+                                       Set<String> nodes, Set<String> hidden) {
+        int[] observed = new int[evidence.size()];
+        for (int i = 0; i < observed.length; i++) {
+            observed[i] = network.getNodeByName(evidence.get(i)).getId();
+        }
+        QueryReducer.Reduction reduction = network.getReducer().reduce(network.getNodeByName(query).getId(), observed);
+        String shape = "P(" + query + "|" + evidence + ")";
+        check(namesOf(network, reduction.getNodes()).equals(nodes), shape + " kept " + namesOf(network, reduction.getNodes()));
+        check(namesOf(network, reduction.getHidden()).equals(hidden), shape + " hides " + namesOf(network, reduction.getHidden()));
+    }
+
+    // Every query on the alarm network with up to two evidence variables, against the full joint distribution.
+    private static void reducedAnswersMatchEnumeration() throws Exception {
+        BayesianNetwork alarm = load(ALARM);
+        List<String> names = List.of("E", "B", "A", "J", "M");
+        for (String target : names) {
+            for (int mask = 0; mask < 1 << names.size(); mask++) {
+                if (Integer.bitCount(mask) > 2 || (mask >> names.indexOf(target) & 1) != 0) {
+                    continue;
+                }
+                for (int values = 0; values < 1 << Integer.bitCount(mask); values++) {
+                    Map<String, String> evidence = new LinkedHashMap<>();
+                    int bit = 0;
+                    for (int v = 0; v < names.size(); v++) {
+                        if ((mask >> v & 1) != 0) {
+                            evidence.put(names.get(v), (values >> bit++ & 1) == 0 ? "T" : "F");
+                        }
+                    }
+                    StringJoiner condition = new StringJoiner(",");
+                    evidence.forEach((name, value) -> condition.add(name + "=" + value));
+                    String query = "P(" + target + "=T" + (evidence.isEmpty() ? "" : "|" + condition) + ")";
+                    double actual = new VariableElimination(alarm).prepare(query)
+                            .run(evidence.values().toArray(new String[0])).getProbability();
+                    Map<String, String> joint = new HashMap<>(evidence);
+                    double numerator = enumerate(alarm, names, joint, target, "T");
+                    double expected = numerator / (numerator + enumerate(alarm, names, joint, target, "F"));
+                    check(Math.abs(actual - expected) < 1e-12, query + " gave " + actual + ", expected " + expected);
+                }
+            }
+        }
+    }
+
+    // The probability of the evidence and target=value, summing the joint over every other variable.
+    private static double enumerate(BayesianNetwork network, List<String> names, Map<String, String> evidence,
+                                    String target, String value) {
+        Map<String, String> fixed = new HashMap<>(evidence);
+        fixed.put(target, value);
+        List<String> free = new ArrayList<>(names);
+        free.removeAll(fixed.keySet());
+        double total = 0;
+        for (int values = 0; values < 1 << free.size(); values++) {
+            Map<String, String> assignment = new HashMap<>(fixed);
+            for (int i = 0; i < free.size(); i++) {
+                assignment.put(free.get(i), (values >> i & 1) == 0 ? "T" : "F");
+            }
+            double joint = 1;
+            for (String name : names) {
+                Node node = network.getNodeByName(name);
+                int row = 0;
+                for (Node parent : node.getParents()) {
+                    row = row * parent.getCardinality() + parent.getOutcomes().indexOf(assignment.get(parent.getName()));
+                }
+                joint *= node.getTable()[row * node.getCardinality() + node.getOutcomes().indexOf(assignment.get(name))];
+            }
+            total += joint;
+        }
+        return total;
+    }
+
+    // Sixty hidden steps with an unlikely observation each: the messages leave the float range after twenty,
+    // which SCALED_FLOAT's shift absorbs and plain FLOAT does not.
+    private static void scaledFloatLongChain() throws Exception {
+        int length = 60;
+        StringBuilder xml = new StringBuilder("<NETWORK>\n");
+        for (int i = 0; i < length; i++) {
+            xml.append(variable("H" + i, 2)).append(variable("E" + i, 2));
+        }
+        for (int i = 0; i < length; i++) {
+            xml.append(i == 0 ? definition("H0", List.of(), "0.3 0.7")
+                    : definition("H" + i, List.of("H" + (i - 1)), "0.8 0.2 0.35 0.65"));
+            xml.append(definition("E" + i, List.of("H" + i), "0.02 0.98 0.005 0.995"));
+        }
+        BayesianNetwork chain = load(xml.append("</NETWORK>\n").toString());
+        StringJoiner evidence = new StringJoiner(",");
+        String[] values = new String[length];
+        for (int i = 0; i < length; i++) {
+            evidence.add("E" + i + "=T");
+            values[i] = "T";
+        }
+        String query = "P(H" + (length - 1) + "=T|" + evidence + ")";
+        double exact = probability(chain, query, values, Factor.Precision.DOUBLE);
+        double scaled = probability(chain, query, values, Factor.Precision.SCALED_FLOAT);
+        double flushed = probability(chain, query, values, Factor.Precision.FLOAT);
+        double unit = Math.pow(2, -24);
+        double bound = Math.pow((1 + unit) / (1 - unit), length) - 1;
+        check(exact > 0 && exact < 1, "exact " + exact);
+        check(Math.abs(scaled - exact) <= exact * bound, "scaled " + scaled + ", exact " + exact);
+        check(Double.isNaN(flushed) || flushed == 0, "FLOAT was expected to underflow, got " + flushed);
+    }
+
+    private static double probability(BayesianNetwork network, String query, String[] values,
+                                      Factor.Precision precision) {
+        VariableElimination engine = new VariableElimination(network);
+        engine.setPrecision(precision);
+        return engine.prepare(query).run(values).getProbability();
+    }
+
+    private static BitSet idsOf(BayesianNetwork network, String... names) {
+        BitSet ids = new BitSet();
+        for (String name : names) {
+            ids.set(network.getNodeByName(name).getId());
+        }
+        return ids;
+    }
+
+    private static Set<String> namesOf(BayesianNetwork network, BitSet ids) {
+        Set<String> names = new HashSet<>();
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            names.add(network.getNode(id).getName());
+        }
+        return names;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    private static String variable(String name, int cardinality) {
+        StringBuilder xml = new StringBuilder("<VARIABLE>\n<NAME>" + name + "</NAME>\n");
+        for (int d = 0; d < cardinality; d++) {
+            xml.append("<OUTCOME>").append(d == 0 ? "T" : d == 1 ? "F" : "U").append("</OUTCOME>\n");
+        }
+        return xml.append("</VARIABLE>\n").toString();
+    }
+
+    private static String definition(String name, List<String> parents, String table) {
+        StringBuilder xml = new StringBuilder("<DEFINITION>\n<FOR>" + name + "</FOR>\n");
+        for (String parent : parents) {
+            xml.append("<GIVEN>").append(parent).append("</GIVEN>\n");
+        }
+        return xml.append("<TABLE>").append(table).append("</TABLE>\n</DEFINITION>\n").toString();
+    }
+
+    private static BayesianNetwork load(String xml) throws Exception {
+        Path file = Files.createTempFile("network", ".xml");
+        try {
+            Files.writeString(file, "<?xml version=\"1.0\"?>\n" + xml);
+            return new BayesianNetwork(file.toString());
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,515 @@
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+// Estimates P(X=x|evidence) by sampling, for networks too dense for VariableElimination to answer in time.
+// Likelihood weighting draws the unobserved variables in topological order and weights each sample by the
+// probability of the evidence; Gibbs sampling resamples one unobserved variable at a time from its
+// distribution given its Markov blanket and averages P(X=x|blanket) over the sweeps. Only ancestors of the
+// query and evidence variables are sampled, since the other variables cannot change the answer. Gibbs
+// chains can get stuck when CPTs contain zeros; likelihood weighting is the safer default.
+//
+// A query runs in rounds until its deadline passes, its sample limit is reached or the standard error drops
+// to its target. Each round every worker draws one batch on the common fork-join pool, using its own
+// SplittableRandom split from the query's seed, so workers share nothing while sampling.
+//
+// Query syntax: P(X=x|E=e,...) ~lw or ~gibbs, optionally followed by ':' and a comma-separated budget of
+// <n>ms (deadline), se=<e> (target standard error), samples=<n> and seed=<n>, e.g. P(B=T|J=T) ~lw:200ms,se=0.005.
+// Without a deadline a query stops after DEFAULT_DEADLINE_MS, so an unreachable target still returns. Limits
+// are checked between rounds, so a query may draw up to one round more than samples=<n>.
+public class SamplingInference {
+    public static final String LIKELIHOOD_WEIGHTING = "lw";
+    public static final String GIBBS = "gibbs";
+    public static final long DEFAULT_DEADLINE_MS = 1000;
+    // Samples, or Gibbs sweeps, each worker draws between two checks of the budget.
+    private static final int BATCH = 1024;
+    // The standard error is not trusted before this many weighted samples or Gibbs batches.
+    private static final int MIN_SAMPLES = 4 * BATCH;
+    private static final int MIN_BATCHES = 16;
+    private static final int BURN_IN = 256;
+    private static final int INITIAL_TRIES = 1000;
+
+    private final Map<String, Integer> ids;
+    private final String[] names;
+    private final List<List<String>> outcomes;
+    // Variables are numbered in topological order, so every parent has a smaller id than its children.
+    private final int[] cardinalities;
+    private final int[][] parents;
+    private final int[][] children;
+    // parentStrides[v][i]: how many CPT rows of v one outcome of its i-th parent spans.
+    private final int[][] parentStrides;
+    // childStrides[v][j]: the same for v as a parent of its j-th child.
+    private final int[][] childStrides;
+    private final double[][] cpts;
+    // Running sums along each CPT row, so an outcome is drawn with one uniform number.
+    private final double[][] cumulative;
+    private final int maxCardinality;
+    private final int workers;
+    private InferenceListener listener = InferenceListener.NONE;
+
+    public SamplingInference(BayesianNetwork network) {
+        this(network, ForkJoinPool.getCommonPoolParallelism());
+    }
+
+    // The lookup tables are heap copies of the CPTs, also for networks loaded off-heap.
+    public SamplingInference(BayesianNetwork network, int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("At least one worker is required.");
+        }
+        this.workers = workers;
+        List<Node> order = network.topologicalSort();
+        int n = order.size();
+        this.ids = new HashMap<>(n * 2);
+        this.names = new String[n];
+        for (Node node : order) {
+            names[ids.size()] = node.getName();
+            ids.put(node.getName(), ids.size());
+        }
+        this.outcomes = new ArrayList<>(n);
+        this.cardinalities = new int[n];
+        this.parents = new int[n][];
+        this.children = new int[n][];
+        this.parentStrides = new int[n][];
+        this.childStrides = new int[n][];
+        this.cpts = new double[n][];
+        this.cumulative = new double[n][];
+        int widest = 1;
+        for (int v = 0; v < n; v++) {
+            Node node = order.get(v);
+            outcomes.add(node.getOutcomes());
+            cardinalities[v] = node.getCardinality();
+            widest = Math.max(widest, cardinalities[v]);
+            List<Node> nodeParents = node.getParents();
+            parents[v] = new int[nodeParents.size()];
+            parentStrides[v] = new int[nodeParents.size()];
+            int stride = 1;
+            for (int i = nodeParents.size() - 1; i >= 0; i--) {
+                parents[v][i] = ids.get(nodeParents.get(i).getName());
+                parentStrides[v][i] = stride;
+                stride *= nodeParents.get(i).getCardinality();
+            }
+            List<Node> nodeChildren = node.getChildren();
+            children[v] = new int[nodeChildren.size()];
+            for (int j = 0; j < nodeChildren.size(); j++) {
+                children[v][j] = ids.get(nodeChildren.get(j).getName());
+            }
+
+            cpts[v] = node.getCptTable().toArray();
+            cumulative[v] = new double[cpts[v].length];
+            int card = cardinalities[v];
+            for (int base = 0; base + card <= cpts[v].length; base += card) {
+                double sum = 0;
+                for (int d = 0; d < card; d++) {
+                    sum += cpts[v][base + d];
+                    cumulative[v][base + d] = sum;
+                }
+            }
+        }
+        this.maxCardinality = widest;
+        for (int v = 0; v < n; v++) {
+            childStrides[v] = new int[children[v].length];
+            for (int j = 0; j < children[v].length; j++) {
+                int child = children[v][j];
+                for (int i = 0; i < parents[child].length; i++) {
+                    if (parents[child][i] == v) {
+                        childStrides[v][j] = parentStrides[child][i];
+                    }
+                }
+            }
+        }
+    }
+
+    public void setListener(InferenceListener listener) {
+        this.listener = listener;
+    }
+
+    // True for P(...) queries that ask for this engine instead of VariableElimination.
+    public static boolean isSamplingQuery(String query) {
+        return query.startsWith("P(") && query.contains(" ~");
+    }
+
+    public String run(String query) {
+        boolean metrics = listener != InferenceListener.NONE;
+        long start = 0;
+        if (metrics) {
+            start = System.nanoTime();
+            listener.queryStarted(InferenceListener.SAMPLING, query);
+        }
+
+        String answer;
+        try {
+            answer = estimate(query).toString();
+        } catch (RuntimeException e) {
+            // One bad line must not fail the batch it came in.
+            answer = "Invalid query format";
+        }
+
+        if (metrics) {
+            listener.queryFinished(InferenceListener.SAMPLING, query, answer, System.nanoTime() - start);
+        }
+        return answer;
+    }
+
+    public SamplingResult estimate(String query) {
+        return estimate(parseQuery(query));
+    }
+
+    private SamplingResult estimate(Query query) {
+        int n = cardinalities.length;
+        int observed = query.evidence[query.variable];
+        if (observed != Factor.UNOBSERVED) {
+            return new SamplingResult(observed == query.value ? 1 : 0, 0, 0);
+        }
+
+        // One pass against the topological order marks every ancestor of the query and evidence variables.
+        boolean[] relevant = new boolean[n];
+        relevant[query.variable] = true;
+        for (int v = 0; v < n; v++) {
+            relevant[v] |= query.evidence[v] != Factor.UNOBSERVED;
+        }
+        for (int v = n - 1; v >= 0; v--) {
+            if (relevant[v]) {
+                for (int parent : parents[v]) {
+                    relevant[parent] = true;
+                }
+            }
+        }
+        Plan plan = new Plan(query, relevant);
+
+        SplittableRandom root = new SplittableRandom(query.seed);
+        Chain[] chains = new Chain[workers];
+        for (int w = 0; w < workers; w++) {
+            chains[w] = new Chain(plan, root.split());
+        }
+        long deadline = System.nanoTime() + query.deadlineNanos;
+        while (true) {
+            // The parallel forEach returns only after every chain's batch, so the reads below see its sums.
+            IntStream.range(0, workers).parallel().forEach(w -> chains[w].run());
+            SamplingResult result = query.gibbs ? combineBatches(chains) : combineWeights(chains);
+            boolean enough = query.gibbs ? countBatches(chains) >= MIN_BATCHES : result.getSampleCount() >= MIN_SAMPLES;
+            if (result.getSampleCount() >= query.maxSamples || System.nanoTime() >= deadline
+                    || enough && result.getStandardError() <= query.targetError) {
+                return result;
+            }
+        }
+    }
+
+    // The ratio estimate sum(w * [X=x]) / sum(w) and its delta-method standard error.
+    private static SamplingResult combineWeights(Chain[] chains) {
+        double weight = 0;
+        double weightMatching = 0;
+        double squares = 0;
+        double squaresMatching = 0;
+        long samples = 0;
+        for (Chain chain : chains) {
+            weight += chain.weight;
+            weightMatching += chain.weightMatching;
+            squares += chain.squares;
+            squaresMatching += chain.squaresMatching;
+            samples += chain.samples;
+        }
+        if (weight == 0) {
+            return new SamplingResult(Double.NaN, Double.NaN, samples);
+        }
+        double p = weightMatching / weight;
+        double deviation = squaresMatching * (1 - 2 * p) + squares * p * p;
+        return new SamplingResult(p, Math.sqrt(Math.max(0, deviation)) / weight, samples);
+    }
+
+    // The mean over equally sized batches, and the standard error from the spread of the batch means.
+    private static SamplingResult combineBatches(Chain[] chains) {
+        long batches = countBatches(chains);
+        double sum = 0;
+        double squares = 0;
+        long samples = 0;
+        for (Chain chain : chains) {
+            sum += chain.batchMeans;
+            squares += chain.batchMeanSquares;
+            samples += chain.samples;
+        }
+        double mean = sum / batches;
+        double variance = batches > 1 ? Math.max(0, squares - batches * mean * mean) / (batches - 1) : Double.POSITIVE_INFINITY;
+        return new SamplingResult(mean, Math.sqrt(variance / batches), samples);
+    }
+
+    private static long countBatches(Chain[] chains) {
+        long batches = 0;
+        for (Chain chain : chains) {
+            batches += chain.batches;
+        }
+        return batches;
+    }
+
+    // P(...) followed by the ~method token; an elimination order kept from the exact form of the query is
+    // allowed before or after it and ignored.
+    private Query parseQuery(String query) {
+        String[] parts = query.split(" ");
+        String methodToken = null;
+        for (int i = 1; i < parts.length; i++) {
+            if (parts[i].startsWith("~")) {
+                if (methodToken != null) {
+                    throw new IllegalArgumentException("More than one sampling method: " + query);
+                }
+                methodToken = parts[i];
+            }
+        }
+        String[] queryParts = parts[0].substring(2, parts[0].length() - 1).split("\\|");
+        String[] queryVariable = queryParts[0].split("=");
+        int variable = idOf(queryVariable[0]);
+        int value = outcomeOf(variable, queryVariable[1]);
+
+        int[] evidence = new int[cardinalities.length];
+        Arrays.fill(evidence, Factor.UNOBSERVED);
+        if (queryParts.length > 1) {
+            for (String e : queryParts[1].split(",")) {
+                String[] ev = e.split("=");
+                int id = idOf(ev[0]);
+                evidence[id] = outcomeOf(id, ev[1]);
+            }
+        }
+
+        boolean gibbs = false;
+        long deadlineNanos = DEFAULT_DEADLINE_MS * 1_000_000;
+        // No target unless one is given: an estimate of exactly 0 or 1 has a standard error of 0.
+        double targetError = -1;
+        long maxSamples = Long.MAX_VALUE;
+        long seed = System.nanoTime();
+        if (methodToken != null) {
+            String[] method = methodToken.substring(1).split(":", 2);
+            if (method[0].equals(GIBBS)) {
+                gibbs = true;
+            } else if (!method[0].equals(LIKELIHOOD_WEIGHTING)) {
+                throw new IllegalArgumentException("Unknown sampling method: " + method[0]);
+            }
+            if (method.length > 1) {
+                for (String limit : method[1].split(",")) {
+                    if (limit.endsWith("ms")) {
+                        deadlineNanos = Long.parseLong(limit.substring(0, limit.length() - 2)) * 1_000_000;
+                    } else if (limit.startsWith("se=")) {
+                        targetError = Double.parseDouble(limit.substring(3));
+                    } else if (limit.startsWith("samples=")) {
+                        maxSamples = Long.parseLong(limit.substring(8));
+                    } else if (limit.startsWith("seed=")) {
+                        seed = Long.parseLong(limit.substring(5));
+                    } else {
+                        throw new IllegalArgumentException("Unknown sampling budget: " + limit);
+                    }
+                }
+            }
+        }
+        return new Query(variable, value, evidence, gibbs, deadlineNanos, targetError, maxSamples, seed);
+    }
+
+    private int idOf(String name) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            throw new IllegalArgumentException("Unknown variable: " + name);
+        }
+        return id;
+    }
+
+    private int outcomeOf(int variable, String outcome) {
+        int index = outcomes.get(variable).indexOf(outcome);
+        if (index < 0) {
+            throw new IllegalArgumentException("Unknown outcome " + outcome + " of variable " + names[variable]);
+        }
+        return index;
+    }
+
+    private static class Query {
+        private final int variable;
+        private final int value;
+        private final int[] evidence;
+        private final boolean gibbs;
+        private final long deadlineNanos;
+        private final double targetError;
+        private final long maxSamples;
+        private final long seed;
+
+        Query(int variable, int value, int[] evidence, boolean gibbs, long deadlineNanos, double targetError,
+              long maxSamples, long seed) {
+            this.variable = variable;
+            this.value = value;
+            this.evidence = evidence;
+            this.gibbs = gibbs;
+            this.deadlineNanos = deadlineNanos;
+            this.targetError = targetError;
+            this.maxSamples = maxSamples;
+            this.seed = seed;
+        }
+    }
+
+    // What every chain of one query shares: the relevant variables in topological order, and those of them
+    // Gibbs resamples.
+    private static class Plan {
+        private final Query query;
+        private final boolean[] relevant;
+        private final int[] sampled;
+        private final int[] free;
+
+        Plan(Query query, boolean[] relevant) {
+            this.query = query;
+            this.relevant = relevant;
+            int count = 0;
+            int freeCount = 0;
+            for (int v = 0; v < relevant.length; v++) {
+                if (relevant[v]) {
+                    count++;
+                    freeCount += query.evidence[v] == Factor.UNOBSERVED ? 1 : 0;
+                }
+            }
+            this.sampled = new int[count];
+            this.free = new int[freeCount];
+            count = 0;
+            freeCount = 0;
+            for (int v = 0; v < relevant.length; v++) {
+                if (relevant[v]) {
+                    sampled[count++] = v;
+                    if (query.evidence[v] == Factor.UNOBSERVED) {
+                        free[freeCount++] = v;
+                    }
+                }
+            }
+        }
+    }
+
+    // One worker's sampler and running sums; touched by a single thread at a time.
+    private final class Chain {
+        private final Plan plan;
+        private final SplittableRandom random;
+        private final int[] state = new int[cardinalities.length];
+        private final double[] weights = new double[maxCardinality];
+        private boolean burnedIn;
+        private long samples;
+        // Likelihood weighting: sums of w and w^2, over all samples and over those with X=x.
+        private double weight;
+        private double weightMatching;
+        private double squares;
+        private double squaresMatching;
+        // Gibbs: number of batches and the sums of their means and squared means.
+        private long batches;
+        private double batchMeans;
+        private double batchMeanSquares;
+
+        Chain(Plan plan, SplittableRandom random) {
+            this.plan = plan;
+            this.random = random;
+        }
+
+        void run() {
+            if (plan.query.gibbs) {
+                runGibbs();
+            } else {
+                runWeighted();
+            }
+        }
+
+        private void runWeighted() {
+            int x = plan.query.variable;
+            for (int s = 0; s < BATCH; s++) {
+                double w = sample();
+                weight += w;
+                squares += w * w;
+                if (state[x] == plan.query.value) {
+                    weightMatching += w;
+                    squaresMatching += w * w;
+                }
+            }
+            samples += BATCH;
+        }
+
+        private void runGibbs() {
+            if (!burnedIn) {
+                // Start from a forward sample consistent with the evidence, if one turns up.
+                for (int t = 0; t < INITIAL_TRIES && sample() == 0; t++) {
+                }
+                for (int s = 0; s < BURN_IN; s++) {
+                    sweep();
+                }
+                burnedIn = true;
+            }
+            double sum = 0;
+            for (int s = 0; s < BATCH; s++) {
+                sum += sweep();
+            }
+            double mean = sum / BATCH;
+            batches++;
+            batchMeans += mean;
+            batchMeanSquares += mean * mean;
+            samples += BATCH;
+        }
+
+        // Draws the relevant variables in topological order, fixing the evidence; returns the evidence's weight.
+        private double sample() {
+            double w = 1;
+            for (int v : plan.sampled) {
+                int card = cardinalities[v];
+                int base = row(v) * card;
+                int observed = plan.query.evidence[v];
+                if (observed != Factor.UNOBSERVED) {
+                    state[v] = observed;
+                    w *= cpts[v][base + observed];
+                } else {
+                    double u = random.nextDouble() * cumulative[v][base + card - 1];
+                    int d = 0;
+                    while (d < card - 1 && u >= cumulative[v][base + d]) {
+                        d++;
+                    }
+                    state[v] = d;
+                }
+            }
+            return w;
+        }
+
+        // Resamples every unobserved relevant variable once; returns P(X=x|blanket) as seen when X was drawn.
+        private double sweep() {
+            double estimate = 0;
+            int x = plan.query.variable;
+            for (int v : plan.free) {
+                int card = cardinalities[v];
+                int base = row(v) * card;
+                for (int d = 0; d < card; d++) {
+                    weights[d] = cpts[v][base + d];
+                }
+                for (int j = 0; j < children[v].length; j++) {
+                    int child = children[v][j];
+                    if (!plan.relevant[child]) {
+                        continue;
+                    }
+                    int childCard = cardinalities[child];
+                    int stride = childStrides[v][j];
+                    int first = row(child) - state[v] * stride;
+                    for (int d = 0; d < card; d++) {
+                        weights[d] *= cpts[child][(first + d * stride) * childCard + state[child]];
+                    }
+                }
+                double total = 0;
+                for (int d = 0; d < card; d++) {
+                    total += weights[d];
+                }
+                if (total > 0) {
+                    double u = random.nextDouble() * total;
+                    int d = 0;
+                    while (d < card - 1 && u >= weights[d]) {
+                        u -= weights[d];
+                        d++;
+                    }
+                    state[v] = d;
+                }
+                if (v == x) {
+                    estimate = total > 0 ? weights[plan.query.value] / total : state[v] == plan.query.value ? 1 : 0;
+                }
+            }
+            return estimate;
+        }
+
+        private int row(int v) {
+            int row = 0;
+            int[] vParents = parents[v];
+            for (int i = 0; i < vParents.length; i++) {
+                row += state[vParents[i]] * parentStrides[v][i];
+            }
+            return row;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+// Outcome of one sampling query: the estimate, its standard error and the samples drawn to get it.
+public class SamplingResult {
+    // Two-sided 95% quantile of the normal distribution.
+    private static final double Z_95 = 1.959964;
+
+    private final double probability;
+    private final double standardError;
+    private final long sampleCount;
+
+    public SamplingResult(double probability, double standardError, long sampleCount) {
+        this.probability = probability;
+        this.standardError = standardError;
+        this.sampleCount = sampleCount;
+    }
+
+    public double getProbability() {
+        return probability;
+    }
+
+    public double getStandardError() {
+        return standardError;
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    // Bounds of the 95% confidence interval, clipped to [0, 1].
+    public double getLower() {
+        return Math.max(0, probability - Z_95 * standardError);
+    }
+
+    public double getUpper() {
+        return Math.min(1, probability + Z_95 * standardError);
+    }
+
+    // The output line format: estimate, lower and upper bound with five decimals, then the sample count.
+    @Override
+    public String toString() {
+        return String.format("%.5f,%.5f,%.5f,%d", probability, getLower(), getUpper(), sampleCount);
+    }
+}
@@ -0,0 +1,70 @@
+// The plain-loop FactorKernels, used when the Vector API is not available.
+class ScalarKernels implements FactorKernels {
+    @Override
+    public void product(double[] a, int aStart, int aStep, double[] b, int bStart, int bStep, double[] out, int outFrom, int length) {
+        for (int t = 0; t < length; t++) {
+            out[outFrom + t] = a[aStart + t * aStep] * b[bStart + t * bStep];
+        }
+    }
+
+    @Override
+    public void productSum(double[][] sources, int[] starts, int[] steps, int[][] eliminated, double[] out, int outFrom, int length) {
+        int m = sources.length;
+        int cardinality = eliminated[0].length;
+        for (int t = 0; t < length; t++) {
+            double sum = 0;
+            for (int d = 0; d < cardinality; d++) {
+                double product = sources[0][starts[0] + t * steps[0] + eliminated[0][d]];
+                for (int k = 1; k < m; k++) {
+                    product *= sources[k][starts[k] + t * steps[k] + eliminated[k][d]];
+                }
+                sum += product;
+            }
+            out[outFrom + t] = sum;
+        }
+    }
+
+    @Override
+    public void sumBlocks(double[] source, int from, int inner, int cardinality, double[] out, int outFrom, int length) {
+        for (int t = 0; t < length; t++) {
+            double sum = 0;
+            for (int d = 0; d < cardinality; d++) {
+                sum += source[from + d * inner + t];
+            }
+            out[outFrom + t] = sum;
+        }
+    }
+
+    @Override
+    public void sumRows(double[] source, int from, int cardinality, double[] out, int outFrom, int length) {
+        for (int t = 0; t < length; t++) {
+            int row = from + t * cardinality;
+            double sum = 0;
+            for (int d = 0; d < cardinality; d++) {
+                sum += source[row + d];
+            }
+            out[outFrom + t] = sum;
+        }
+    }
+
+    @Override
+    public double sum(double[] values) {
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    @Override
+    public void divide(double[] values, double divisor) {
+        for (int i = 0; i < values.length; i++) {
+            values[i] /= divisor;
+        }
+    }
+
+    @Override
+    public String name() {
+        return "scalar";
+    }
+}
@@ -0,0 +1,112 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Dense int ids for variables and, per variable, for their outcomes. Factors, BayesBall and the query
+// parsers work on these ids, so inference compares and indexes ints; names are only looked up when a query
+// is parsed or a result is printed.
+//
+// A loaded network has its own table, with variable ids in the network's iteration order and outcome ids in
+// the order the outcomes are declared; it is filled once and never grows. Factors built from names rather than
+// from a network use STANDALONE, which interns names as it meets them. Ids are never reused, and lookups never
+// block.
+public final class SymbolTable {
+    public static final SymbolTable STANDALONE = new SymbolTable();
+
+    private final Map<String, Integer> ids;
+    private final List<String> names;
+    private final List<Outcomes> outcomes;
+
+    SymbolTable() {
+        this.ids = new ConcurrentHashMap<>();
+        this.names = new CopyOnWriteArrayList<>();
+        this.outcomes = new CopyOnWriteArrayList<>();
+    }
+
+    // The table of a network: its nodes' names and outcomes, in iteration order. Built in plain collections,
+    // which the final fields publish; adding to it afterwards throws UnsupportedOperationException.
+    SymbolTable(Collection<Node> nodes) {
+        Map<String, Integer> ids = new HashMap<>(nodes.size() * 4 / 3 + 1);
+        List<String> names = new ArrayList<>(nodes.size());
+        List<Outcomes> outcomes = new ArrayList<>(nodes.size());
+        for (Node node : nodes) {
+            if (ids.putIfAbsent(node.getName(), names.size()) == null) {
+                names.add(node.getName());
+                outcomes.add(new Outcomes(node.getOutcomes()));
+            }
+        }
+        this.ids = Collections.unmodifiableMap(ids);
+        this.names = Collections.unmodifiableList(names);
+        this.outcomes = Collections.unmodifiableList(outcomes);
+    }
+
+    // The id of the variable, or -1 if the table has none by that name.
+    public int id(String variable) {
+        Integer id = ids.get(variable);
+        return id != null ? id : -1;
+    }
+
+    public String name(int variable) {
+        return names.get(variable);
+    }
+
+    public int size() {
+        return names.size();
+    }
+
+    // The id of the outcome of variable, or -1 if the variable has no such outcome.
+    public int outcomeId(int variable, String outcome) {
+        Integer id = outcomes.get(variable).ids.get(outcome);
+        return id != null ? id : -1;
+    }
+
+    public String outcomeName(int variable, int outcome) {
+        return outcomes.get(variable).names.get(outcome);
+    }
+
+    // The id of the variable, added to the table if it is new.
+    synchronized int variable(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        names.add(name);
+        outcomes.add(new Outcomes());
+        ids.put(name, names.size() - 1);
+        return names.size() - 1;
+    }
+
+    // The id of the outcome of variable, added to the table if it is new.
+    synchronized int outcome(int variable, String outcome) {
+        Outcomes known = outcomes.get(variable);
+        Integer id = known.ids.get(outcome);
+        if (id != null) {
+            return id;
+        }
+        known.names.add(outcome);
+        known.ids.put(outcome, known.names.size() - 1);
+        return known.names.size() - 1;
+    }
+
+    private static class Outcomes {
+        private final Map<String, Integer> ids;
+        private final List<String> names;
+
+        Outcomes() {
+            this.ids = new ConcurrentHashMap<>();
+            this.names = new CopyOnWriteArrayList<>();
+        }
+
+        Outcomes(List<String> declared) {
+            Map<String, Integer> ids = new HashMap<>(declared.size() * 4 / 3 + 1);
+            List<String> names = new ArrayList<>(declared.size());
+            for (String outcome : declared) {
+                if (ids.putIfAbsent(outcome, names.size()) == null) {
+                    names.add(outcome);
+                }
+            }
+            this.ids = Collections.unmodifiableMap(ids);
+            this.names = Collections.unmodifiableList(names);
+        }
+    }
+}
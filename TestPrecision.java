@@ -0,0 +1,204 @@
+/*import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// FLOAT and SCALED_FLOAT against the double-precision engine, on the alarm network, on random networks and on a
+// long chain whose intermediate factors fall below the float range.
+public class TestPrecision {
+    private static final String ALARM = "<NETWORK>\n"
+            + variable("E", 2) + variable("B", 2) + variable("A", 2) + variable("J", 2) + variable("M", 2)
+            + definition("E", List.of(), "0.002 0.998")
+            + definition("B", List.of(), "0.001 0.999")
+            + definition("A", List.of("B", "E"), "0.95 0.05 0.94 0.06 0.29 0.71 0.001 0.999")
+            + definition("J", List.of("A"), "0.9 0.1 0.05 0.95")
+            + definition("M", List.of("A"), "0.7 0.3 0.01 0.99")
+            + "</NETWORK>\n";
+    private static final List<String> ALARM_QUERIES = List.of(
+            "P(B=T|J=T,M=T) A-E", "P(B=T|J=T,M=T) E-A", "P(J=T|B=T) A-E-M", "P(J=T|B=T) M-E-A",
+            "P(A=T|J=T) B-E-M", "P(M=F|B=T,E=F) A-J", "P(E=T) A-B-J-M");
+    private static final double UNIT_ROUNDOFF = Math.pow(2, -24);
+
+    private BayesianNetwork alarm;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        alarm = load(ALARM);
+    }
+
+    @Test
+    public void testAlarmMatchesDouble() throws Exception {
+        for (Factor.Precision precision : List.of(Factor.Precision.FLOAT, Factor.Precision.SCALED_FLOAT)) {
+            for (String query : ALARM_QUERIES) {
+                assertMatchesDouble(alarm, query, precision);
+            }
+        }
+    }
+
+    @Test
+    public void testRandomNetworksMatchDouble() throws Exception {
+        for (long seed = 1; seed <= 3; seed++) {
+            Random random = new Random(seed);
+            BayesianNetwork network = load(randomNetwork(40, random));
+            for (int q = 0; q < 25; q++) {
+                String query = randomQuery(network, random);
+                assertMatchesDouble(network, query, Factor.Precision.FLOAT);
+                assertMatchesDouble(network, query, Factor.Precision.SCALED_FLOAT);
+            }
+        }
+    }
+
+    @Test
+    public void testGroupedQueriesUsePrecision() throws Exception {
+        VariableElimination exact = new VariableElimination(alarm);
+        VariableElimination scaled = new VariableElimination(alarm);
+        scaled.setPrecision(Factor.Precision.SCALED_FLOAT);
+        List<String> group = List.of("P(B=T|J=T,M=T) A-E", "P(B=F|J=T,M=T) A-E");
+        List<String> answers = scaled.runGroup(group);
+        for (int i = 0; i < group.size(); i++) {
+            assertEquals(exact.run(group.get(i)), answers.get(i));
+        }
+    }
+
+    // Sixty hidden steps, each with an unlikely observation: the messages shrink by about 0.01 per step and
+    // leave the float range after twenty.
+    @Test
+    public void testLongChainUnderflow() throws Exception {
+        int length = 60;
+        StringBuilder xml = new StringBuilder("<NETWORK>\n");
+        for (int i = 0; i < length; i++) {
+            xml.append(variable("H" + i, 2)).append(variable("E" + i, 2));
+        }
+        for (int i = 0; i < length; i++) {
+            xml.append(i == 0 ? definition("H0", List.of(), "0.3 0.7")
+                    : definition("H" + i, List.of("H" + (i - 1)), "0.8 0.2 0.35 0.65"));
+            xml.append(definition("E" + i, List.of("H" + i), "0.02 0.98 0.005 0.995"));
+        }
+        BayesianNetwork chain = load(xml.append("</NETWORK>\n").toString());
+        StringBuilder query = new StringBuilder("P(H" + (length - 1) + "=T|");
+        StringJoiner order = new StringJoiner("-");
+        for (int i = 0; i < length; i++) {
+            query.append(i > 0 ? "," : "").append("E").append(i).append("=T");
+            if (i < length - 1) {
+                order.add("H" + i);
+            }
+        }
+        String chainQuery = query.append(") ").append(order).toString();
+
+        double exact = probability(chain, chainQuery, Factor.Precision.DOUBLE);
+        assertTrue(exact > 0 && exact < 1);
+        assertMatchesDouble(chain, chainQuery, Factor.Precision.SCALED_FLOAT);
+        double flushed = probability(chain, chainQuery, Factor.Precision.FLOAT);
+        assertTrue(Double.isNaN(flushed) || flushed == 0, "FLOAT was expected to underflow, got " + flushed);
+    }
+
+    // The answer run prints, counts included, is the double one, and the probability is within the bound
+    // documented on Factor.Precision.
+    private static void assertMatchesDouble(BayesianNetwork network, String query, Factor.Precision precision) {
+        VariableElimination exact = new VariableElimination(network);
+        VariableElimination rounded = new VariableElimination(network);
+        rounded.setPrecision(precision);
+        assertEquals(exact.run(query), rounded.run(query), precision + " " + query);
+
+        double expected = probability(network, query, Factor.Precision.DOUBLE);
+        double actual = probability(network, query, precision);
+        int eliminated = exact.prepare(query).getEliminationOrder().size();
+        double bound = Math.pow((1 + UNIT_ROUNDOFF) / (1 - UNIT_ROUNDOFF), eliminated) - 1;
+        assertEquals(expected, actual, expected * bound + 1e-15, precision + " " + query);
+    }
+
+    private static double probability(BayesianNetwork network, String query, Factor.Precision precision) {
+        VariableElimination engine = new VariableElimination(network);
+        engine.setPrecision(precision);
+        PreparedQuery prepared = engine.prepare(query);
+        String condition = query.substring(2, query.indexOf(')'));
+        List<String> values = new ArrayList<>();
+        if (condition.contains("|")) {
+            for (String assignment : condition.substring(condition.indexOf('|') + 1).split(",")) {
+                values.add(assignment.substring(assignment.indexOf('=') + 1));
+            }
+        }
+        return prepared.run(values.toArray(new String[0])).getProbability();
+    }
+
+    // Variables X0..X(n-1) with two or three outcomes and up to three earlier parents each.
+    private static String randomNetwork(int n, Random random) {
+        StringBuilder variables = new StringBuilder();
+        StringBuilder definitions = new StringBuilder();
+        int[] cardinalities = new int[n];
+        for (int i = 0; i < n; i++) {
+            cardinalities[i] = 2 + random.nextInt(2);
+            variables.append(variable("X" + i, cardinalities[i]));
+            List<String> parents = new ArrayList<>();
+            int rows = 1;
+            for (int k = random.nextInt(4); k > 0 && i > 0; k--) {
+                int parent = random.nextInt(i);
+                if (!parents.contains("X" + parent)) {
+                    parents.add("X" + parent);
+                    rows *= cardinalities[parent];
+                }
+            }
+            StringJoiner table = new StringJoiner(" ");
+            for (int row = 0; row < rows; row++) {
+                double[] weights = new double[cardinalities[i]];
+                double total = 0;
+                for (int d = 0; d < weights.length; d++) {
+                    weights[d] = 0.05 + random.nextDouble();
+                    total += weights[d];
+                }
+                for (double weight : weights) {
+                    table.add(Double.toString(weight / total));
+                }
+            }
+            definitions.append(definition("X" + i, parents, table.toString()));
+        }
+        return "<NETWORK>\n" + variables + definitions + "</NETWORK>\n";
+    }
+
+    // A query with up to three evidence variables and the order chosen by the planner.
+    private static String randomQuery(BayesianNetwork network, Random random) {
+        List<String> names = new ArrayList<>(network.getNodes().keySet());
+        Collections.sort(names);
+        String target = names.get(random.nextInt(names.size()));
+        StringJoiner evidence = new StringJoiner(",");
+        Set<String> used = new HashSet<>(Set.of(target));
+        for (int k = random.nextInt(4); k > 0; k--) {
+            String name = names.get(random.nextInt(names.size()));
+            if (used.add(name)) {
+                List<String> outcomes = network.getNodes().get(name).getOutcomes();
+                evidence.add(name + "=" + outcomes.get(random.nextInt(outcomes.size())));
+            }
+        }
+        String outcome = network.getNodes().get(target).getOutcomes().get(0);
+        return "P(" + target + "=" + outcome + (evidence.length() > 0 ? "|" + evidence : "") + ")";
+    }
+
+    private static String variable(String name, int cardinality) {
+        StringBuilder xml = new StringBuilder("<VARIABLE>\n<NAME>" + name + "</NAME>\n");
+        for (int d = 0; d < cardinality; d++) {
+            xml.append("<OUTCOME>").append(d == 0 ? "T" : d == 1 ? "F" : "U").append("</OUTCOME>\n");
+        }
+        return xml.append("</VARIABLE>\n").toString();
+    }
+
+    private static String definition(String name, List<String> parents, String table) {
+        StringBuilder xml = new StringBuilder("<DEFINITION>\n<FOR>" + name + "</FOR>\n");
+        for (String parent : parents) {
+            xml.append("<GIVEN>").append(parent).append("</GIVEN>\n");
+        }
+        return xml.append("<TABLE>").append(table).append("</TABLE>\n</DEFINITION>\n").toString();
+    }
+
+    private static BayesianNetwork load(String xml) throws Exception {
+        Path file = Files.createTempFile("network", ".xml");
+        try {
+            Files.writeString(file, "<?xml version=\"1.0\"?>\n" + xml);
+            return new BayesianNetwork(file.toString());
+        } finally {
+            Files.delete(file);
+        }
+    }
+}*/
@@ -1,93 +1,340 @@
 import java.util.*;
 
 public class VariableElimination {
-    private BayesianNetwork network;
-    private int totalAdditionCount;
-    private int totalMultiplicationCount;
-    private boolean debug = true;
+    // Bound on the intermediate factors runGroup keeps for the queries of one group.
+    private static final long GROUP_CACHE_BYTES = 64L << 20;
+
+    private final BayesianNetwork network;
+    private final SymbolTable symbols;
+    private boolean planner;
+    private InferenceListener listener = InferenceListener.NONE;
+    private FactorCache cache;
+    private EliminationOrdering.Plan lastPlan;
+    private Factor.Precision precision = Factor.Precision.DOUBLE;
 
     public VariableElimination(BayesianNetwork network) {
         this.network = network;
+        this.symbols = network.getSymbols();
+    }
+
+    // When on, the elimination order written in the query is ignored and one is chosen by EliminationOrdering.
+    // Queries without an order always use the planner.
+    public void setPlanner(boolean planner) {
+        this.planner = planner;
+    }
+
+    // The plan chosen for the last query run, or null if that query used its own order.
+    public EliminationOrdering.Plan getLastPlan() {
+        return lastPlan;
+    }
+
+    // Receives the events of every query run by this engine, including runs of the queries it prepared.
+    public void setListener(InferenceListener listener) {
+        this.listener = listener;
     }
 
-    private void debugPrint(String message) {
-        if (debug) {
-            System.out.println(message);
+    // How the factors produced by elimination steps are stored until the next step uses them. FLOAT and
+    // SCALED_FLOAT halve their memory at the cost of the error bound documented on Factor.Precision; the
+    // factors built from the CPTs and the final product stay in double.
+    public void setPrecision(Factor.Precision precision) {
+        if (precision == null) {
+            throw new IllegalArgumentException("A precision is required.");
         }
+        this.precision = precision;
     }
 
-    public String run(String query) {
-        this.totalAdditionCount = 0;
-        this.totalMultiplicationCount = 0;
+    public Factor.Precision getPrecision() {
+        return precision;
+    }
+
+    // Shares elimination results with other engines using the same cache; null turns caching off.
+    public void setCache(FactorCache cache) {
+        if (cache != null && cache.getNetwork() != network) {
+            throw new IllegalArgumentException("The cache belongs to another network.");
+        }
+        this.cache = cache;
+    }
 
-        debugPrint("Processing query: " + query);
+    FactorCache getCache() {
+        return cache;
+    }
+
+    public String run(String query) {
+        boolean metrics = listener != InferenceListener.NONE;
+        long start = 0;
+        if (metrics) {
+            start = System.nanoTime();
+            listener.queryStarted(InferenceListener.VARIABLE_ELIMINATION, query);
+        }
 
         ParsedQuery parsedQuery = parseQuery(query);
-        Set<String> relevantVariables = preprocessNetwork(parsedQuery);
+        PreparedQuery prepared = prepare(parsedQuery);
+        String[] evidenceValues = parsedQuery.getEvidence().values().toArray(new String[0]);
+        String answer = prepared.run(evidenceValues).toString();
+
+        if (metrics) {
+            listener.queryFinished(InferenceListener.VARIABLE_ELIMINATION, query, answer, System.nanoTime() - start);
+        }
+        return answer;
+    }
+
+    // Queries with the same key share one evidence assignment, so runGroup can answer them together.
+    // Sampling and malformed queries have no key.
+    public String groupKey(String query) {
+        if (!query.startsWith("P(") || SamplingInference.isSamplingQuery(query)) {
+            return null;
+        }
+        ParsedQuery parsedQuery;
+        try {
+            parsedQuery = parseQuery(query);
+        } catch (RuntimeException e) {
+            return null;
+        }
+        List<String> assignment = new ArrayList<>();
+        for (Map.Entry<String, String> entry : parsedQuery.getEvidence().entrySet()) {
+            assignment.add(entry.getKey() + "=" + entry.getValue());
+        }
+        Collections.sort(assignment);
+        return String.join(",", assignment);
+    }
+
+    // Answers queries that all have the same groupKey, sharing the work they have in common. Queries that
+    // differ only in the value asked for are answered from one elimination, since their counts do not depend
+    // on it. The others share every elimination step they have in common through a FactorCache kept for the
+    // group, or through the engine's own cache if it has one. Every answer, counts included, is the one run
+    // would give; the shared elimination is timed as part of the first query that needs it.
+    public List<String> runGroup(List<String> queries) {
+        VariableElimination engine = this;
+        if (cache == null && queries.size() > 1) {
+            engine = new VariableElimination(network);
+            engine.planner = planner;
+            engine.listener = listener;
+            engine.precision = precision;
+            engine.cache = new FactorCache(network, GROUP_CACHE_BYTES);
+        }
 
-        debugPrint("Relevant variables: " + relevantVariables);
+        Map<String, List<Integer>> sameElimination = new LinkedHashMap<>();
+        List<ParsedQuery> parsedQueries = new ArrayList<>(queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            ParsedQuery parsedQuery = parseQuery(queries.get(i));
+            parsedQueries.add(parsedQuery);
+            String key = parsedQuery.getQueryVariable() + "|" + parsedQuery.getEvidence() + " "
+                    + Arrays.toString(parsedQuery.getEliminationOrder());
+            sameElimination.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+        }
 
-        List<Factor> factors = initializeFactors(parsedQuery.getEvidence(), relevantVariables);
+        String[] answers = new String[queries.size()];
+        for (List<Integer> indices : sameElimination.values()) {
+            List<ParsedQuery> members = new ArrayList<>(indices.size());
+            for (int index : indices) {
+                members.add(parsedQueries.get(index));
+            }
+            List<String> memberAnswers = engine.runSameElimination(members);
+            for (int k = 0; k < indices.size(); k++) {
+                answers[indices.get(k)] = memberAnswers.get(k);
+            }
+        }
+        return Arrays.asList(answers);
+    }
 
-        debugPrint("Initial factors: " + factors.size());
+    // Queries with the same variable, evidence and order, answered from one elimination.
+    private List<String> runSameElimination(List<ParsedQuery> queries) {
+        boolean metrics = listener != InferenceListener.NONE;
+        ParsedQuery first = queries.get(0);
+        long start = 0;
+        if (metrics) {
+            start = System.nanoTime();
+            listener.queryStarted(InferenceListener.VARIABLE_ELIMINATION, first.getQuery());
+        }
 
-        for (String var : parsedQuery.getEliminationOrder()) {
-            if (relevantVariables.contains(var) && !parsedQuery.getEvidence().containsKey(var) && !var.equals(parsedQuery.getQueryVariable())) {
-                debugPrint("Eliminating variable: " + var);
-                List<Factor> relevantFactors = getRelevantFactors(factors, var);
-                factors.removeAll(relevantFactors);
-                Factor newFactor = multiplyAndSumOut(relevantFactors, var);
-                factors.add(newFactor);
-                factors.sort(Comparator.comparingInt(f -> f.getVariables().size()));
-                debugPrint("Factors after elimination: " + factors.size());
+        PreparedQuery prepared = prepare(first);
+        String[] queryValues = new String[queries.size()];
+        for (int k = 0; k < queryValues.length; k++) {
+            queryValues[k] = queries.get(k).getQueryValue();
+        }
+        String[] evidenceValues = first.getEvidence().values().toArray(new String[0]);
+        QueryResult[] results = prepared.runValues(queryValues, evidenceValues);
+
+        List<String> answers = new ArrayList<>(queries.size());
+        for (int k = 0; k < queries.size(); k++) {
+            String answer = results[k].toString();
+            if (metrics) {
+                if (k > 0) {
+                    start = System.nanoTime();
+                    listener.queryStarted(InferenceListener.VARIABLE_ELIMINATION, queries.get(k).getQuery());
+                    listener.operationCounts(results[k].getAdditionCount(), results[k].getMultiplicationCount());
+                }
+                listener.queryFinished(InferenceListener.VARIABLE_ELIMINATION, queries.get(k).getQuery(), answer,
+                        System.nanoTime() - start);
             }
+            answers.add(answer);
         }
+        return answers;
+    }
+
+    // Compiles a query once: parsing, pruning and elimination planning happen here, and the evidence values
+    // written in the template are only placeholders for the values later passed to PreparedQuery.run.
+    public PreparedQuery prepare(String queryTemplate) {
+        return prepare(parseQuery(queryTemplate));
+    }
+
+    private PreparedQuery prepare(ParsedQuery parsedQuery) {
+        QueryReducer.Reduction reduction = network.getReducer().reduce(parsedQuery.getQueryId(), parsedQuery.getEvidenceIds());
+        BitSet relevantVariables = reduction.getNodes();
+        BitSet hidden = reduction.getHidden();
+        if (listener != InferenceListener.NONE) {
+            listener.pruned(parsedQuery.getQuery(), Collections.unmodifiableSet(namesOf(relevantVariables)),
+                    network.getNodes().size());
+        }
+
+        // Ids follow the network's iteration order, so the factors keep the order they always had.
+        List<Node> factorNodes = new ArrayList<>();
+        for (int id = relevantVariables.nextSetBit(0); id >= 0; id = relevantVariables.nextSetBit(id + 1)) {
+            factorNodes.add(network.getNode(id));
+        }
+
+        // Every evidence variable binds a value, including those whose component was dropped.
+        List<Node> evidenceNodes = new ArrayList<>();
+        for (int id : parsedQuery.getEvidenceIds()) {
+            evidenceNodes.add(network.getNode(id));
+        }
+
+        int[] eliminationOrder;
+        if (planner || parsedQuery.getEliminationOrder() == null) {
+            lastPlan = planEliminationOrder(factorNodes, parsedQuery, hidden);
+            eliminationOrder = idsOf(lastPlan.getOrder());
+            if (listener != InferenceListener.NONE) {
+                listener.planned(parsedQuery.getQuery(), lastPlan);
+            }
+        } else {
+            lastPlan = null;
+            eliminationOrder = Arrays.stream(idsOf(Arrays.asList(parsedQuery.getEliminationOrder())))
+                    .filter(id -> id >= 0 && hidden.get(id)).toArray();
+        }
+        return new PreparedQuery(this, network.getNode(parsedQuery.getQueryId()), parsedQuery.getQueryValue(),
+                evidenceNodes, factorNodes, eliminationOrder, lastPlan);
+    }
+
+    // Ids of the named variables, -1 for an unknown name.
+    private int[] idsOf(List<String> names) {
+        int[] ids = new int[names.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = symbols.id(names.get(i));
+        }
+        return ids;
+    }
 
-        Factor resultFactor = multiplyAllFactors(factors);
+    private Set<String> namesOf(BitSet ids) {
+        Set<String> names = new HashSet<>();
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            names.add(symbols.name(id));
+        }
+        return names;
+    }
 
-        if (resultFactor.getVariables().size() > 1) {
-            debugPrint("Normalizing result factor");
-            resultFactor = normalizeFactor(resultFactor);
+    // One elimination answering the query for each of queryValues; every result carries the full counts.
+    // evidenceOutcomes are the outcome ids of evidenceNodes, negative for a value outside the domain.
+    QueryResult[] eliminate(List<Factor> factors, int[] eliminationOrder, Node queryNode, String[] queryValues,
+                            List<Node> evidenceNodes, int[] evidenceOutcomes, String[] evidenceValues) {
+        // {additions, multiplications} for this run only, so one prepared query can run on several threads.
+        int[] totals = new int[2];
+        boolean metrics = listener != InferenceListener.NONE;
+
+        for (int var : eliminationOrder) {
+            List<Factor> relevantFactors = getRelevantFactors(factors, var);
+            factors.removeAll(relevantFactors);
+            int[] inputSizes = null;
+            long start = 0;
+            if (metrics) {
+                inputSizes = new int[relevantFactors.size()];
+                for (int i = 0; i < inputSizes.length; i++) {
+                    inputSizes[i] = relevantFactors.get(i).size();
+                }
+                start = System.nanoTime();
+            }
+            Factor newFactor = cache != null ? cachedMultiplyAndSumOut(relevantFactors, var, totals)
+                    : multiplyAndSumOut(relevantFactors, var, totals);
+            if (metrics) {
+                listener.eliminationStep(symbols.name(var), inputSizes, newFactor.size(), System.nanoTime() - start);
+            }
+            newFactor.compact(precision);
+            factors.add(newFactor);
+            factors.sort(Comparator.comparingInt(Factor::getVariableCount));
         }
 
-        List<String> finalKey = constructFinalKey(resultFactor, parsedQuery);
-        Double resultValue = resultFactor.getCpt().get(finalKey);
+        Factor resultFactor = multiplyAllFactors(factors, totals);
 
-        if (resultValue == null) {
-            System.err.println("Key not found in CPT: " + finalKey);
-            for (List<String> key : resultFactor.getCpt().keySet()) {
-                System.err.println("CPT key: " + key);
+        if (resultFactor.getVariableCount() > 1) {
+            resultFactor = normalizeFactor(resultFactor, totals);
+        }
+        if (metrics) {
+            listener.operationCounts(totals[0], totals[1]);
+        }
+
+        // The outcome of every variable of the result; variables that are neither asked for nor observed
+        // keep -1, which matches no entry.
+        int[] variables = resultFactor.getVariableIds();
+        int[] outcomes = new int[variables.length];
+        int queryIndex = -1;
+        for (int j = 0; j < variables.length; j++) {
+            outcomes[j] = -1;
+            if (variables[j] == queryNode.getId()) {
+                queryIndex = j;
+            }
+            for (int k = 0; k < evidenceNodes.size(); k++) {
+                if (variables[j] == evidenceNodes.get(k).getId()) {
+                    outcomes[j] = evidenceOutcomes[k];
+                }
             }
-            return "0.00000," + totalAdditionCount + "," + totalMultiplicationCount;
         }
 
-        debugPrint("Final counts - Additions: " + totalAdditionCount + ", Multiplications: " + totalMultiplicationCount);
+        QueryResult[] results = new QueryResult[queryValues.length];
+        for (int i = 0; i < queryValues.length; i++) {
+            if (queryIndex >= 0) {
+                outcomes[queryIndex] = symbols.outcomeId(queryNode.getId(), queryValues[i]);
+            }
+            Double resultValue = resultFactor.getValue(outcomes);
 
-        return String.format("%.5f,%d,%d", resultValue, totalAdditionCount, totalMultiplicationCount);
+            if (resultValue == null) {
+                List<String> finalKey = constructFinalKey(resultFactor, queryNode, queryValues[i], evidenceNodes, evidenceValues);
+                System.err.println("Key not found in CPT: " + finalKey);
+                for (List<String> key : resultFactor.getCpt().keySet()) {
+                    System.err.println("CPT key: " + key);
+                }
+                resultValue = 0.0;
+            }
+            results[i] = new QueryResult(resultValue, totals[0], totals[1]);
+        }
+        return results;
     }
 
-    private List<String> constructFinalKey(Factor factor, ParsedQuery parsedQuery) {
+    private List<String> constructFinalKey(Factor factor, Node queryNode, String queryValue, List<Node> evidenceNodes,
+                                           String[] evidenceValues) {
         List<String> finalKey = new ArrayList<>();
         for (String var : factor.getVariables()) {
-            if (parsedQuery.getQueryVariable().equals(var)) {
-                finalKey.add(var + "=" + parsedQuery.getQueryValue());
-            } else if (parsedQuery.getEvidence().containsKey(var)) {
-                finalKey.add(var + "=" + parsedQuery.getEvidence().get(var));
+            if (queryNode.getName().equals(var)) {
+                finalKey.add(var + "=" + queryValue);
+            }
+            for (int k = 0; k < evidenceNodes.size(); k++) {
+                if (evidenceNodes.get(k).getName().equals(var)) {
+                    finalKey.add(var + "=" + evidenceValues[k]);
+                }
             }
         }
         return finalKey;
     }
 
+    // Names are resolved to ids here; the rest of the engine only sees ids.
     private ParsedQuery parseQuery(String query) {
         String[] parts = query.split(" ");
         String[] queryParts = parts[0].substring(2, parts[0].length() - 1).split("\\|");
-        String[] eliminationOrder = parts[1].split("-");
+        String[] eliminationOrder = parts.length > 1 ? parts[1].split("-") : null;
 
         String[] queryVariable = queryParts[0].split("=");
         String queryVar = queryVariable[0];
         String queryValue = queryVariable[1];
 
-        Map<String, String> evidence = new HashMap<>();
+        Map<String, String> evidence = new LinkedHashMap<>();
         if (queryParts.length > 1) {
             String[] evidenceParts = queryParts[1].split(",");
             for (String e : evidenceParts) {
@@ -96,136 +343,133 @@ public class VariableElimination {
             }
         }
 
-        return new ParsedQuery(queryVar, queryValue, evidence, eliminationOrder);
-    }
-
-    private Set<String> preprocessNetwork(ParsedQuery parsedQuery) {
-        Set<String> relevantVariables = new HashSet<>();
-        relevantVariables.add(parsedQuery.getQueryVariable());
-        relevantVariables.addAll(parsedQuery.getEvidence().keySet());
-
-        // Find all ancestors of query variable and evidence variables
-        Set<String> ancestorVariables = findAncestors(relevantVariables);
-
-        BayesBall bayesBall = new BayesBall(network);
-
-        for (String variable : ancestorVariables) {
-            if (!relevantVariables.contains(variable)) {
-                String query = parsedQuery.getQueryVariable() + "-" + variable;
-                if (!parsedQuery.getEvidence().isEmpty()) {
-                    query += "|" + String.join(",", parsedQuery.getEvidence().keySet());
-                }
-
-                String result = bayesBall.run(query);
-                if (result.equals("no")) {
-                    relevantVariables.add(variable);
-                }
-            }
+        int queryId = requireId(queryVar);
+        int[] evidenceIds = new int[evidence.size()];
+        int k = 0;
+        for (String var : evidence.keySet()) {
+            evidenceIds[k++] = requireId(var);
         }
-
-        debugPrint("Relevant variables after Bayes Ball and ancestor filtering: " + relevantVariables);
-        return relevantVariables;
+        return new ParsedQuery(query, queryVar, queryValue, evidence, eliminationOrder, queryId, evidenceIds);
     }
 
-    private Set<String> findAncestors(Set<String> startNodes) {
-        Set<String> ancestors = new HashSet<>(startNodes);
-        Queue<String> queue = new LinkedList<>(startNodes);
-
-        while (!queue.isEmpty()) {
-            String currentNode = queue.poll();
-            Node node = network.getNodeByName(currentNode);
-
-            for (Node parent : node.getParents()) {
-                String parentName = parent.getName();
-                if (!ancestors.contains(parentName)) {
-                    ancestors.add(parentName);
-                    queue.add(parentName);
-                }
-            }
+    private int requireId(String variable) {
+        int id = symbols.id(variable);
+        if (id < 0) {
+            throw new IllegalArgumentException("Unknown variable: " + variable);
         }
-
-        return ancestors;
+        return id;
     }
 
-    private List<Factor> initializeFactors(Map<String, String> evidence, Set<String> relevantVariables) {
-        List<Factor> factors = new ArrayList<>();
-
-        for (Node node : network.getNodes().values()) {
-            if (relevantVariables.contains(node.getName())) {
-                Map<String, String> nodeEvidence = new HashMap<>();
-                for (Node parent : node.getParents()) {
-                    if (evidence.containsKey(parent.getName())) {
-                        nodeEvidence.put(parent.getName(), evidence.get(parent.getName()));
-                    }
-                }
-                if (evidence.containsKey(node.getName())) {
-                    nodeEvidence.put(node.getName(), evidence.get(node.getName()));
-                }
-                Factor factor = new Factor(node, nodeEvidence);
-                if (factor.getCpt().size() > 1) {
-                    factors.add(factor);
+    // EliminationOrdering works on names; hidden holds the ids of the variables to eliminate.
+    private EliminationOrdering.Plan planEliminationOrder(List<Node> factorNodes, ParsedQuery parsedQuery, BitSet hidden) {
+        Map<String, String> evidence = parsedQuery.getEvidence();
+        List<List<String>> scopes = new ArrayList<>(factorNodes.size());
+        Map<String, Integer> cardinalities = new HashMap<>();
+        for (Node node : factorNodes) {
+            List<Node> members = new ArrayList<>(node.getParents());
+            members.add(node);
+            List<String> scope = new ArrayList<>();
+            int size = 1;
+            for (Node member : members) {
+                if (!evidence.containsKey(member.getName())) {
+                    scope.add(member.getName());
+                    cardinalities.put(member.getName(), member.getCardinality());
+                    size *= member.getCardinality();
                 }
             }
+            // Factors with a single entry are dropped before elimination, so they add no edges.
+            if (size > 1) {
+                scopes.add(scope);
+            }
         }
 
-        return factors;
+        List<String> toEliminate = new ArrayList<>();
+        for (int id = hidden.nextSetBit(0); id >= 0; id = hidden.nextSetBit(id + 1)) {
+            Node node = network.getNode(id);
+            toEliminate.add(node.getName());
+            cardinalities.put(node.getName(), node.getCardinality());
+        }
+        return new EliminationOrdering().plan(scopes, cardinalities, toEliminate);
     }
 
-    private List<Factor> getRelevantFactors(List<Factor> factors, String var) {
+    private List<Factor> getRelevantFactors(List<Factor> factors, int var) {
         List<Factor> relevantFactors = new ArrayList<>();
         for (Factor factor : factors) {
             if (factor.containsVariable(var)) {
                 relevantFactors.add(factor);
             }
         }
-        relevantFactors.sort(Comparator.comparingInt(f -> f.getVariables().size()));
+        relevantFactors.sort(Comparator.comparingInt(Factor::getVariableCount));
         return relevantFactors;
     }
 
-    private Factor multiplyAndSumOut(List<Factor> factors, String var) {
-        debugPrint("Multiplying and summing out " + factors.size() + " factors for variable " + var);
+    private Factor multiplyAndSumOut(List<Factor> factors, int var, int[] totals) {
         Factor result = factors.get(0);
-        for (int i = 1; i < factors.size(); i++) {
-            int[] counts = result.multiply(factors.get(i));
-            this.totalAdditionCount += counts[0];
-            this.totalMultiplicationCount += counts[1];
-            debugPrint("After multiplication " + i + ": Additions=" + totalAdditionCount + ", Multiplications=" + totalMultiplicationCount);
-        }
-        int[] sumOutCounts = result.sumOut(var);
-        this.totalAdditionCount += sumOutCounts[0];
-        this.totalMultiplicationCount += sumOutCounts[1];
-        debugPrint("After summing out: Additions=" + totalAdditionCount + ", Multiplications=" + totalMultiplicationCount);
+        int[] counts = result.multiplyAndSumOut(factors.subList(1, factors.size()), var);
+        addCounts(totals, counts);
         return result;
     }
 
-    private Factor multiplyAllFactors(List<Factor> factors) {
+    // Same result and counts as multiplyAndSumOut, served from the cache when another query already did this step.
+    private Factor cachedMultiplyAndSumOut(List<Factor> factors, int var, int[] totals) {
+        String stepKey = cache.stepKey(factors, var);
+        if (stepKey == null) {
+            return multiplyAndSumOut(factors, var, totals);
+        }
+        int[] counts = new int[2];
+        Factor result = cache.get(stepKey, counts);
+        if (result == null) {
+            result = multiplyAndSumOut(factors, var, counts);
+            cache.put(stepKey, result, counts);
+        }
+        addCounts(totals, counts);
+        result.setCacheKey(cache.resultKey(stepKey));
+        return result;
+    }
+
+    private Factor multiplyAllFactors(List<Factor> factors, int[] totals) {
         Factor resultFactor = factors.get(0);
         for (int i = 1; i < factors.size(); i++) {
             int[] counts = resultFactor.multiply(factors.get(i));
-            this.totalAdditionCount += counts[0];
-            this.totalMultiplicationCount += counts[1];
+            addCounts(totals, counts);
         }
         return resultFactor;
     }
 
-    private Factor normalizeFactor(Factor factor) {
+    private Factor normalizeFactor(Factor factor, int[] totals) {
         int[] counts = factor.normalize();
-        this.totalAdditionCount += counts[0];
-        this.totalMultiplicationCount += counts[1];
+        addCounts(totals, counts);
         return factor;
     }
 
+    private static void addCounts(int[] totals, int[] counts) {
+        totals[0] += counts[0];
+        totals[1] += counts[1];
+    }
+
     private class ParsedQuery {
+        private String query;
         private String queryVariable;
         private String queryValue;
         private Map<String, String> evidence;
         private String[] eliminationOrder;
+        private int queryId;
+        // Ids of the evidence variables, in the order of evidence.
+        private int[] evidenceIds;
 
-        public ParsedQuery(String queryVariable, String queryValue, Map<String, String> evidence, String[] eliminationOrder) {
+        public ParsedQuery(String query, String queryVariable, String queryValue, Map<String, String> evidence, String[] eliminationOrder,
+                           int queryId, int[] evidenceIds) {
+            this.query = query;
             this.queryVariable = queryVariable;
             this.queryValue = queryValue;
             this.evidence = evidence;
             this.eliminationOrder = eliminationOrder;
+            this.queryId = queryId;
+            this.evidenceIds = evidenceIds;
+        }
+
+        public String getQuery() {
+            return query;
         }
 
         public String getQueryVariable() {
@@ -243,5 +487,13 @@ public class VariableElimination {
         public String[] getEliminationOrder() {
             return eliminationOrder;
         }
+
+        public int getQueryId() {
+            return queryId;
+        }
+
+        public int[] getEvidenceIds() {
+            return evidenceIds;
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,20 @@
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Runs the benchmark suite with throughput, average time and the gc profiler's allocation rate.
+// The jmh/ sources are compiled together with the engine sources and the JMH jars (jmh-core and the
+// jmh-generator-annprocess annotation processor) on the classpath, and with simd/ for KernelBenchmark's
+// vector trials:
+//   javac --add-modules jdk.incubator.vector -cp jmh-core.jar:jmh-generator-annprocess.jar -d out *.java simd/*.java jmh/*.java
+//   java -cp out:jmh-core.jar:commons-math3.jar:jopt-simple.jar BenchmarkMain [regexp]
+public class BenchmarkMain {
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(args.length > 0 ? args[0] : "(Factor|Inference|Kernel)Benchmark")
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
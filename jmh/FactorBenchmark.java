@@ -0,0 +1,96 @@
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+// Factor kernels on random factors; below Factor.SPARSE_MAX_DENSITY they are stored sparse. multiply and sumOut replace the receiver's table, so those
+// benchmarks work on a fresh copy each call; copyOnly measures that overhead on its own.
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FactorBenchmark {
+    // Variables in the left operand. The right one has half as many, half of those shared with the left.
+    @Param({"6", "9", "12"})
+    public int width;
+
+    @Param({"2", "3"})
+    public int cardinality;
+
+    // Share of non-zero entries.
+    @Param({"1.0", "0.1"})
+    public double density;
+
+    private Factor left;
+    private Factor right;
+    private String summedOut;
+    private Map<String, String> evidence;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        int shared = width / 4;
+        List<String> leftVariables = new ArrayList<>();
+        List<String> rightVariables = new ArrayList<>();
+        for (int i = 0; i < width; i++) {
+            leftVariables.add("L" + i);
+        }
+        for (int i = 0; i < shared; i++) {
+            rightVariables.add("L" + (width - shared + i));
+        }
+        for (int i = shared; i < width / 2; i++) {
+            rightVariables.add("R" + i);
+        }
+        left = randomFactor(leftVariables, random);
+        right = randomFactor(rightVariables, random);
+        summedOut = leftVariables.get(width / 3);
+        evidence = new HashMap<>();
+        evidence.put(leftVariables.get(0), SyntheticNetworks.outcome(1, cardinality));
+        evidence.put(leftVariables.get(width - 1), SyntheticNetworks.outcome(0, cardinality));
+    }
+
+    private Factor randomFactor(List<String> variables, Random random) {
+        List<String> domain = new ArrayList<>();
+        for (int d = 0; d < cardinality; d++) {
+            domain.add(SyntheticNetworks.outcome(d, cardinality));
+        }
+        List<List<String>> outcomes = new ArrayList<>();
+        int size = 1;
+        for (int i = 0; i < variables.size(); i++) {
+            outcomes.add(domain);
+            size *= cardinality;
+        }
+        double[] values = new double[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = random.nextDouble() < density ? random.nextDouble() : 0;
+        }
+        return new Factor(new ArrayList<>(variables), outcomes, values);
+    }
+
+    @Benchmark
+    public Factor copyOnly() {
+        return left.copy();
+    }
+
+    @Benchmark
+    public int[] multiply(Blackhole blackhole) {
+        Factor product = left.copy();
+        blackhole.consume(product);
+        return product.multiply(right);
+    }
+
+    @Benchmark
+    public int[] sumOut(Blackhole blackhole) {
+        Factor marginal = left.copy();
+        blackhole.consume(marginal);
+        return marginal.sumOut(summedOut);
+    }
+
+    @Benchmark
+    public Factor restrict() {
+        return left.restrict(evidence);
+    }
+}
@@ -0,0 +1,59 @@
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// End-to-end BayesBall and VariableElimination queries on generated networks.
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InferenceBenchmark {
+    @Param({"CHAIN", "POLYTREE", "GRID", "NAIVE_BAYES", "RANDOM_DAG"})
+    public SyntheticNetworks.Shape shape;
+
+    @Param({"50", "200"})
+    public int size;
+
+    @Param({"2"})
+    public int cardinality;
+
+    @Param({"3"})
+    public int maxInDegree;
+
+    @Param({"3"})
+    public int evidenceCount;
+
+    // How VariableElimination stores the factors its elimination steps produce.
+    @Param({"DOUBLE", "FLOAT", "SCALED_FLOAT"})
+    public Factor.Precision precision;
+
+    private BayesianNetwork network;
+    private BayesBall bayesBall;
+    private String eliminationQuery;
+    private String bayesBallQuery;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        network = SyntheticNetworks.load(shape, size, cardinality, maxInDegree, 7);
+        bayesBall = new BayesBall(network);
+        eliminationQuery = SyntheticNetworks.query(network, evidenceCount, 11);
+
+        String evidence = eliminationQuery.contains("|")
+                ? eliminationQuery.substring(eliminationQuery.indexOf('|') + 1, eliminationQuery.length() - 1) : "";
+        bayesBallQuery = SyntheticNetworks.name(0) + "-" + SyntheticNetworks.name(size - 1) + (evidence.isEmpty() ? "" : "|" + evidence);
+    }
+
+    @Benchmark
+    public String bayesBall() {
+        return bayesBall.run(bayesBallQuery);
+    }
+
+    @Benchmark
+    public String variableElimination() {
+        VariableElimination engine = new VariableElimination(network);
+        engine.setPrecision(precision);
+        return engine.run(eliminationQuery);
+    }
+}
@@ -0,0 +1,97 @@
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+// The dense inner loops, ScalarKernels against VectorKernels, on one block of size entries. The vector trials
+// need VectorKernels compiled into the classpath (see simd/VectorKernels.java); without it they fail rather
+// than measure the scalar fallback twice.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class KernelBenchmark {
+    @Param({"scalar", "vector"})
+    public String kernels;
+
+    @Param({"4096", "262144"})
+    public int size;
+
+    // Cardinality of the summed-out variable.
+    @Param({"2", "4"})
+    public int cardinality;
+
+    private FactorKernels selected;
+    private double[] left;
+    private double[] right;
+    private double[] out;
+    private double[] normalized;
+    private double[][] sources;
+    private int[] steps;
+    private int[][] eliminated;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        selected = kernels.equals("scalar") ? new ScalarKernels() : FactorKernels.load();
+        if (!selected.name().equals(kernels)) {
+            throw new IllegalStateException("VectorKernels is not available.");
+        }
+        Random random = new Random(42);
+        left = new double[size * cardinality];
+        right = new double[size * cardinality];
+        for (int i = 0; i < left.length; i++) {
+            left[i] = random.nextDouble();
+            right[i] = random.nextDouble();
+        }
+        out = new double[size];
+        normalized = Arrays.copyOf(left, size);
+        // Two operands laid out like the output, the summed-out variable outermost in both.
+        sources = new double[][]{left, right};
+        steps = new int[]{1, 1};
+        eliminated = new int[2][cardinality];
+        for (int d = 0; d < cardinality; d++) {
+            eliminated[0][d] = d * size;
+            eliminated[1][d] = d * size;
+        }
+    }
+
+    @Benchmark
+    public double[] product() {
+        selected.product(left, 0, 1, right, 0, 1, out, 0, size);
+        return out;
+    }
+
+    @Benchmark
+    public double[] productBroadcast() {
+        selected.product(left, 0, 1, right, 0, 0, out, 0, size);
+        return out;
+    }
+
+    @Benchmark
+    public double[] productSum() {
+        selected.productSum(sources, new int[2], steps, eliminated, out, 0, size);
+        return out;
+    }
+
+    @Benchmark
+    public double[] sumOutermost() {
+        selected.sumBlocks(left, 0, size, cardinality, out, 0, size);
+        return out;
+    }
+
+    @Benchmark
+    public double[] sumInnermost() {
+        selected.sumRows(left, 0, cardinality, out, 0, size);
+        return out;
+    }
+
+    // Sum and scale as in Factor.normalize; dividing by the total of entries that already sum to one keeps
+    // the table from drifting across invocations.
+    @Benchmark
+    public double[] normalize() {
+        selected.divide(normalized, selected.sum(normalized));
+        return normalized;
+    }
+}
@@ -0,0 +1,195 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// Generates XMLBIF networks of a given shape for the benchmarks. Networks are written to a file and
+// loaded through BayesianNetwork, so they look exactly like networks read from disk.
+public class SyntheticNetworks {
+    public enum Shape {
+        CHAIN,
+        POLYTREE,
+        GRID,
+        NAIVE_BAYES,
+        RANDOM_DAG
+    }
+
+    private SyntheticNetworks() {
+    }
+
+    public static BayesianNetwork load(Shape shape, int size, int cardinality, int maxInDegree, long seed) throws Exception {
+        File file = File.createTempFile("synthetic-" + shape.name().toLowerCase() + "-", ".xml");
+        file.deleteOnExit();
+        write(file, shape, size, cardinality, maxInDegree, seed);
+        return new BayesianNetwork(file.getPath());
+    }
+
+    public static void write(File file, Shape shape, int size, int cardinality, int maxInDegree, long seed) throws IOException {
+        Random random = new Random(seed);
+        List<List<Integer>> parents = parents(shape, size, maxInDegree, random);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            out.write("<?xml version=\"1.0\"?>\n<NETWORK>\n");
+            for (int i = 0; i < size; i++) {
+                out.write("<VARIABLE>\n\t<NAME>" + name(i) + "</NAME>\n");
+                for (int d = 0; d < cardinality; d++) {
+                    out.write("\t<OUTCOME>" + outcome(d, cardinality) + "</OUTCOME>\n");
+                }
+                out.write("</VARIABLE>\n");
+            }
+            for (int i = 0; i < size; i++) {
+                out.write("<DEFINITION>\n\t<FOR>" + name(i) + "</FOR>\n");
+                int rows = 1;
+                for (int p : parents.get(i)) {
+                    out.write("\t<GIVEN>" + name(p) + "</GIVEN>\n");
+                    rows *= cardinality;
+                }
+                StringBuilder table = new StringBuilder();
+                for (int row = 0; row < rows; row++) {
+                    double[] weights = new double[cardinality];
+                    double sum = 0;
+                    for (int d = 0; d < cardinality; d++) {
+                        weights[d] = 0.05 + random.nextDouble();
+                        sum += weights[d];
+                    }
+                    for (int d = 0; d < cardinality; d++) {
+                        table.append(weights[d] / sum).append(' ');
+                    }
+                }
+                out.write("\t<TABLE>" + table.toString().trim() + "</TABLE>\n</DEFINITION>\n");
+            }
+            out.write("</NETWORK>\n");
+        }
+    }
+
+    public static String name(int i) {
+        return "N" + i;
+    }
+
+    // Binary networks use the T/F outcomes of the course files, wider ones s0, s1, ...
+    public static String outcome(int d, int cardinality) {
+        if (cardinality == 2) {
+            return d == 0 ? "T" : "F";
+        }
+        return "s" + d;
+    }
+
+    // Parents always have a smaller index than their child, so every shape is acyclic.
+    private static List<List<Integer>> parents(Shape shape, int size, int maxInDegree, Random random) {
+        List<List<Integer>> parents = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            parents.add(new ArrayList<>());
+        }
+        switch (shape) {
+            case CHAIN:
+                for (int i = 1; i < size; i++) {
+                    parents.get(i).add(i - 1);
+                }
+                break;
+            case POLYTREE:
+                // A random tree on the undirected skeleton; parents may have several children and vice versa,
+                // but there is never more than one path between two nodes.
+                for (int i = 1; i < size; i++) {
+                    int j = random.nextInt(i);
+                    if (random.nextBoolean() || parents.get(j).size() >= maxInDegree) {
+                        parents.get(i).add(j);
+                    } else {
+                        parents.get(j).add(i);
+                    }
+                }
+                return reindex(parents);
+            case GRID:
+                int side = (int) Math.ceil(Math.sqrt(size));
+                for (int i = 0; i < size; i++) {
+                    if (i % side > 0) {
+                        parents.get(i).add(i - 1);
+                    }
+                    if (i >= side) {
+                        parents.get(i).add(i - side);
+                    }
+                }
+                break;
+            case NAIVE_BAYES:
+                for (int i = 1; i < size; i++) {
+                    parents.get(i).add(0);
+                }
+                break;
+            case RANDOM_DAG:
+                for (int i = 1; i < size; i++) {
+                    int k = random.nextInt(Math.min(maxInDegree, i) + 1);
+                    List<Integer> candidates = new ArrayList<>();
+                    for (int j = 0; j < i; j++) {
+                        candidates.add(j);
+                    }
+                    Collections.shuffle(candidates, random);
+                    parents.get(i).addAll(candidates.subList(0, k));
+                    Collections.sort(parents.get(i));
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown shape " + shape);
+        }
+        return parents;
+    }
+
+    // Relabels the nodes in a topological order of the given parent lists.
+    private static List<List<Integer>> reindex(List<List<Integer>> parents) {
+        int size = parents.size();
+        List<List<Integer>> children = new ArrayList<>(size);
+        int[] inDegree = new int[size];
+        for (int i = 0; i < size; i++) {
+            children.add(new ArrayList<>());
+        }
+        for (int i = 0; i < size; i++) {
+            inDegree[i] = parents.get(i).size();
+            for (int p : parents.get(i)) {
+                children.get(p).add(i);
+            }
+        }
+        int[] label = new int[size];
+        Deque<Integer> ready = new ArrayDeque<>();
+        for (int i = 0; i < size; i++) {
+            if (inDegree[i] == 0) {
+                ready.add(i);
+            }
+        }
+        int next = 0;
+        while (!ready.isEmpty()) {
+            int i = ready.poll();
+            label[i] = next++;
+            for (int c : children.get(i)) {
+                if (--inDegree[c] == 0) {
+                    ready.add(c);
+                }
+            }
+        }
+        List<List<Integer>> relabelled = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            relabelled.add(new ArrayList<>());
+        }
+        for (int i = 0; i < size; i++) {
+            for (int p : parents.get(i)) {
+                relabelled.get(label[i]).add(label[p]);
+            }
+        }
+        return relabelled;
+    }
+
+    // A P(...) query on the last node with a few random evidence variables and no elimination order,
+    // so VariableElimination plans one itself.
+    public static String query(BayesianNetwork network, int evidenceCount, long seed) {
+        Random random = new Random(seed);
+        int size = network.getNodes().size();
+        Node target = network.getNodeByName(name(size - 1));
+        StringBuilder query = new StringBuilder("P(" + target.getName() + "=" + target.getOutcomes().get(0));
+        List<Integer> candidates = new ArrayList<>();
+        for (int i = 0; i < size - 1; i++) {
+            candidates.add(i);
+        }
+        Collections.shuffle(candidates, random);
+        for (int e = 0; e < Math.min(evidenceCount, candidates.size()); e++) {
+            Node node = network.getNodeByName(name(candidates.get(e)));
+            query.append(e == 0 ? "|" : ",").append(node.getName()).append('=')
+                    .append(node.getOutcomes().get(random.nextInt(node.getCardinality())));
+        }
+        return query.append(')').toString();
+    }
+}
@@ -0,0 +1,154 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// FactorKernels on the incubating Vector API, a lane per output entry. FactorKernels.load picks these when the
+// jdk.incubator.vector module is resolved, so both compiling and running need it:
+//   javac --add-modules jdk.incubator.vector -d out *.java simd/*.java
+//   java --add-modules jdk.incubator.vector -cp out Ex1
+// Built without simd/ or run without the module, Factor falls back to ScalarKernels.
+//
+// Each lane multiplies and adds the same terms in the same order as the scalar loop does for its entry, and
+// the tail that does not fill a vector runs that loop, so everything but sum is bit-identical to ScalarKernels.
+class VectorKernels implements FactorKernels {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+
+    @Override
+    public void product(double[] a, int aStart, int aStep, double[] b, int bStart, int bStep, double[] out, int outFrom, int length) {
+        int bound = SPECIES.loopBound(length);
+        int t = 0;
+        if (aStep == 1 && bStep == 1) {
+            for (; t < bound; t += LANES) {
+                DoubleVector.fromArray(SPECIES, a, aStart + t)
+                        .mul(DoubleVector.fromArray(SPECIES, b, bStart + t))
+                        .intoArray(out, outFrom + t);
+            }
+        } else if (aStep == 1 || bStep == 1) {
+            // One operand is broadcast across the block.
+            double[] moving = aStep == 1 ? a : b;
+            int movingStart = aStep == 1 ? aStart : bStart;
+            DoubleVector fixed = DoubleVector.broadcast(SPECIES, aStep == 1 ? b[bStart] : a[aStart]);
+            for (; t < bound; t += LANES) {
+                DoubleVector.fromArray(SPECIES, moving, movingStart + t).mul(fixed).intoArray(out, outFrom + t);
+            }
+        }
+        for (; t < length; t++) {
+            out[outFrom + t] = a[aStart + t * aStep] * b[bStart + t * bStep];
+        }
+    }
+
+    @Override
+    public void productSum(double[][] sources, int[] starts, int[] steps, int[][] eliminated, double[] out, int outFrom, int length) {
+        int m = sources.length;
+        int cardinality = eliminated[0].length;
+        int bound = SPECIES.loopBound(length);
+        int t = 0;
+        for (; t < bound; t += LANES) {
+            DoubleVector sum = DoubleVector.zero(SPECIES);
+            for (int d = 0; d < cardinality; d++) {
+                DoubleVector product = lanes(sources[0], starts[0] + eliminated[0][d], steps[0], t);
+                for (int k = 1; k < m; k++) {
+                    product = product.mul(lanes(sources[k], starts[k] + eliminated[k][d], steps[k], t));
+                }
+                sum = sum.add(product);
+            }
+            sum.intoArray(out, outFrom + t);
+        }
+        for (; t < length; t++) {
+            double sum = 0;
+            for (int d = 0; d < cardinality; d++) {
+                double product = sources[0][starts[0] + t * steps[0] + eliminated[0][d]];
+                for (int k = 1; k < m; k++) {
+                    product *= sources[k][starts[k] + t * steps[k] + eliminated[k][d]];
+                }
+                sum += product;
+            }
+            out[outFrom + t] = sum;
+        }
+    }
+
+    private static DoubleVector lanes(double[] source, int start, int step, int t) {
+        return step == 1 ? DoubleVector.fromArray(SPECIES, source, start + t) : DoubleVector.broadcast(SPECIES, source[start]);
+    }
+
+    @Override
+    public void sumBlocks(double[] source, int from, int inner, int cardinality, double[] out, int outFrom, int length) {
+        int bound = SPECIES.loopBound(length);
+        int t = 0;
+        for (; t < bound; t += LANES) {
+            DoubleVector sum = DoubleVector.zero(SPECIES);
+            for (int d = 0; d < cardinality; d++) {
+                sum = sum.add(DoubleVector.fromArray(SPECIES, source, from + d * inner + t));
+            }
+            sum.intoArray(out, outFrom + t);
+        }
+        for (; t < length; t++) {
+            double sum = 0;
+            for (int d = 0; d < cardinality; d++) {
+                sum += source[from + d * inner + t];
+            }
+            out[outFrom + t] = sum;
+        }
+    }
+
+    @Override
+    public void sumRows(double[] source, int from, int cardinality, double[] out, int outFrom, int length) {
+        // Lane i gathers row t + i, one outcome at a time.
+        int[] rows = new int[LANES];
+        for (int i = 0; i < LANES; i++) {
+            rows[i] = i * cardinality;
+        }
+        int bound = SPECIES.loopBound(length);
+        int t = 0;
+        for (; t < bound; t += LANES) {
+            int row = from + t * cardinality;
+            DoubleVector sum = DoubleVector.zero(SPECIES);
+            for (int d = 0; d < cardinality; d++) {
+                sum = sum.add(DoubleVector.fromArray(SPECIES, source, row + d, rows, 0));
+            }
+            sum.intoArray(out, outFrom + t);
+        }
+        for (; t < length; t++) {
+            int row = from + t * cardinality;
+            double sum = 0;
+            for (int d = 0; d < cardinality; d++) {
+                sum += source[row + d];
+            }
+            out[outFrom + t] = sum;
+        }
+    }
+
+    // Adds in LANES running sums, so the result can differ from the scalar sum in the last bits.
+    @Override
+    public double sum(double[] values) {
+        int bound = SPECIES.loopBound(values.length);
+        DoubleVector lanes = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (; i < bound; i += LANES) {
+            lanes = lanes.add(DoubleVector.fromArray(SPECIES, values, i));
+        }
+        double sum = lanes.reduceLanes(VectorOperators.ADD);
+        for (; i < values.length; i++) {
+            sum += values[i];
+        }
+        return sum;
+    }
+
+    @Override
+    public void divide(double[] values, double divisor) {
+        int bound = SPECIES.loopBound(values.length);
+        int i = 0;
+        for (; i < bound; i += LANES) {
+            DoubleVector.fromArray(SPECIES, values, i).div(divisor).intoArray(values, i);
+        }
+        for (; i < values.length; i++) {
+            values[i] /= divisor;
+        }
+    }
+
+    @Override
+    public String name() {
+        return "vector";
+    }
+}